@@ -0,0 +1,30 @@
+package com.xiaer;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Runs StageBenchmark with the gc profiler, gc.alloc.rate.norm is the allocation per corpus.
+ *   Arguments are JMH command line options, e.g. "StageBenchmark.slice -p corpus=demos,1024x16"
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLine)
+                .addProfiler(GCProfiler.class);
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(StageBenchmark.class.getSimpleName());
+        }
+        new Runner(options.build()).run();
+    }
+}
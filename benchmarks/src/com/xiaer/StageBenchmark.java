@@ -0,0 +1,174 @@
+package com.xiaer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * One benchmark per stage of a run, every operation covers the whole corpus.
+ *   parse   decode, edge scan and slice table, NinePatch.read(file)
+ *   edges   EdgeAnalyzer runs of the four edge bitsets and the PatchDescriptor, no decoding
+ *   slice   cut and encode every slice to images/<id>_<index>.png
+ *   html    getHTML()
+ *   js      UtilTools.createJS()
+ * corpus
+ *   demos          every demos/*.9.png, -Dhtml9patch.demos=<dir> for another directory
+ *   <size>x<runs>  one generated patch, see SyntheticPatch
+ * Run through BenchmarkRunner for throughput and the gc profiler (allocation rate).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StageBenchmark {
+
+    @Param({"demos", "64x1", "64x4", "256x1", "256x4", "256x16", "1024x1", "1024x4", "1024x16"})
+    public String corpus;
+
+    private File work;
+    private File[] files;
+
+    // edges stage input, [top, left, right, bottom] bitsets and the image size per file
+    private long[][][] edges;
+    private int[][] sizes;
+
+    // slice / html / js stage input
+    private NinePatch[] patches;
+    private String imagesDirectory;
+    private ArrayList<String> htmls;
+    private ArrayList<String> ids;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+
+        work = File.createTempFile("html9patch-bench", "");
+        work.delete();
+        work.mkdirs();
+        imagesDirectory = new File(work, "images").getPath();
+
+        if (corpus.equals("demos")) {
+            File demos = new File(System.getProperty("html9patch.demos", "demos"));
+            files = demos.listFiles();
+            if (files == null) {
+                throw new IOException("No demos directory: " + demos.getAbsolutePath());
+            }
+            ArrayList<File> patchFiles = new ArrayList<File>();
+            for (File file : files) {
+                if (file.getName().endsWith(".9.png")) {
+                    patchFiles.add(file);
+                }
+            }
+            files = patchFiles.toArray(new File[patchFiles.size()]);
+            Arrays.sort(files);
+        } else {
+            files = new File[]{SyntheticPatch.write(work, corpus)};
+        }
+
+        edges = new long[files.length][][];
+        sizes = new int[files.length][];
+        patches = new NinePatch[files.length];
+        htmls = new ArrayList<String>();
+        ids = new ArrayList<String>();
+        for (int f = 0; f < files.length; f++) {
+            BufferedImage bi = ImageIO.read(files[f]);
+            int w = bi.getWidth();
+            int h = bi.getHeight();
+            sizes[f] = new int[]{w, h};
+            edges[f] = new long[][]{
+                    EdgeAnalyzer.pack(alphas(bi, 1, 0, w - 2, 1)),
+                    EdgeAnalyzer.pack(alphas(bi, 0, 1, 1, h - 2)),
+                    EdgeAnalyzer.pack(alphas(bi, w - 1, 1, 1, h - 2)),
+                    EdgeAnalyzer.pack(alphas(bi, 1, h - 1, w - 2, 1))};
+            patches[f] = NinePatch.read(files[f]);
+            ids.add(patches[f].getId());
+            htmls.add(patches[f].getHTML(patches[f].getId()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        delete(work);
+    }
+
+    @Benchmark
+    public void parse(Blackhole bh) throws IOException {
+        for (File file : files) {
+            bh.consume(NinePatch.read(file));
+        }
+    }
+
+    @Benchmark
+    public void edges(Blackhole bh) {
+        for (int f = 0; f < edges.length; f++) {
+            int w = sizes[f][0] - 2;
+            int h = sizes[f][1] - 2;
+            bh.consume(new PatchDescriptor(sizes[f][0], sizes[f][1],
+                    EdgeAnalyzer.runs(edges[f][0], w),
+                    EdgeAnalyzer.runs(edges[f][1], h),
+                    EdgeAnalyzer.runs(edges[f][2], h),
+                    EdgeAnalyzer.runs(edges[f][3], w)));
+        }
+    }
+
+    @Benchmark
+    public void slice() {
+        for (NinePatch np : patches) {
+            np.slice(imagesDirectory);
+        }
+    }
+
+    @Benchmark
+    public void html(Blackhole bh) {
+        for (NinePatch np : patches) {
+            bh.consume(np.getHTML(np.getId()));
+        }
+    }
+
+    @Benchmark
+    public void js() {
+        UtilTools.createJS(htmls, ids, work.getPath());
+    }
+
+    private static int[] alphas(BufferedImage bi, int x, int y, int w, int h) {
+        int[] argb = bi.getRGB(x, y, w, h, null, 0, w);
+        for (int i = 0; i < argb.length; i++) {
+            argb[i] = (argb[i] >> 24) & 0xff;
+        }
+        return argb;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,74 @@
+package com.xiaer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Generated 9-Patch files for StageBenchmark, spec <size>x<runs>, e.g. 256x4
+ *   size x size pixels inside the 1px frame,
+ *   top and left edges with [runs] black stretch runs spread evenly, (2 * runs + 1) x (2 * runs + 1) slices,
+ *   right and bottom edges with one content line,
+ *   pixels are a translucent gradient so slices are not one flat color.
+ */
+final class SyntheticPatch {
+
+    private static final int BLACK = 0xff000000;
+
+    private SyntheticPatch() {
+    }
+
+    /**
+     *
+     * @param directory output directory
+     * @param spec <size>x<runs>
+     * @return synthetic_<spec>.9.png
+     * @throws IOException
+     */
+    static File write(File directory, String spec) throws IOException {
+
+        int separator = spec.indexOf('x');
+        if (separator == -1) {
+            throw new IllegalArgumentException("corpus must be demos or <size>x<runs>: " + spec);
+        }
+        int size = Integer.parseInt(spec.substring(0, separator));
+        int runs = Integer.parseInt(spec.substring(separator + 1));
+        if (runs < 1 || size < 2 * runs + 1) {
+            throw new IllegalArgumentException("size must be at least 2 * runs + 1: " + spec);
+        }
+
+        BufferedImage bi = new BufferedImage(size + 2, size + 2, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int alpha = 0x80 + (x + y) % 0x80;
+                int red = x * 255 / size;
+                int green = y * 255 / size;
+                int blue = (x ^ y) & 0xff;
+                bi.setRGB(x + 1, y + 1, (alpha << 24) | (red << 16) | (green << 8) | blue);
+            }
+        }
+
+        // fixed, stretch, fixed, ..., stretch, fixed
+        int segments = 2 * runs + 1;
+        for (int r = 0; r < runs; r++) {
+            for (int p = (2 * r + 1) * size / segments; p < (2 * r + 2) * size / segments; p++) {
+                bi.setRGB(p + 1, 0, BLACK);
+                bi.setRGB(0, p + 1, BLACK);
+            }
+        }
+        int margin = size / 8;
+        for (int p = margin; p < size - margin; p++) {
+            bi.setRGB(p + 1, size + 1, BLACK);
+            bi.setRGB(size + 1, p + 1, BLACK);
+        }
+
+        File file = new File(directory, "synthetic_" + spec + ".9.png");
+        ImageIO.write(bi, "png", file);
+        return file;
+    }
+}
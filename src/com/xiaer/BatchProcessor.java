@@ -0,0 +1,385 @@
+package com.xiaer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Batch processing of 9-Patch files on a shared worker pool.
+ *   Every file is parsed, sliced and rendered independently,
+ *   results are collected in the order of the input array, not in the order the workers finish.
+ *   The pool is created on first use and kept for every later batch (--watch, one batch per folder of a tree),
+ *   submit() queues a batch without waiting for it, so the files of many folders share the workers.
+ *   A file is only decoded when a worker picks it up, so at most [threads] images are in memory.
+ *   With a BuildCache, files whose content hash did not change are skipped entirely.
+ *   An invalid 9-Patch is reported on stderr and left out, the other files are still processed.
+ *   The largest pixel buffer decoded for every file goes to BuildMetrics, see NinePatch.getPeakDecodedBytes.
+ *   With BuildMetrics every file is measured on the worker that processes it.
+ *   A worker frees its pooled png reader and encoder when it ends, see CodecPool.
+ */
+public class BatchProcessor {
+
+    /**
+     * Workers that dispose their CodecPool codecs when the pool ends them, an idle worker ends after a while too
+     */
+    private static final ForkJoinPool.ForkJoinWorkerThreadFactory WORKERS = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            return new ForkJoinWorkerThread(pool) {
+                protected void onTermination(Throwable exception) {
+                    CodecPool.disposeThread();
+                    super.onTermination(exception);
+                }
+            };
+        }
+    };
+
+    private final int threads;
+    private final BuildCache cache;
+    private boolean atlas;
+    private boolean dedup;
+    private boolean borderImage;
+    private boolean regionDecode;
+    private boolean minify;
+    private DensityVariants densities;
+    private BuildMetrics metrics;
+    private ExecutorService pool;
+
+    /**
+     * Files of one output directory queued on the pool, see submit()
+     */
+    public static final class Batch {
+        private final ArrayList<Future<String[]>> futures;
+
+        private Batch(ArrayList<Future<String[]>> futures) {
+            this.futures = futures;
+        }
+    }
+
+    /**
+     *
+     * @param threads worker count, <= 0 uses the available processors
+     * @param cache incremental build manifest, null processes every file
+     */
+    public BatchProcessor(int threads, BuildCache cache) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.cache = cache;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public boolean isAtlas() {
+        return atlas;
+    }
+
+    /**
+     * @param atlas pack the slices of all files into sprite sheets, see SpriteAtlas
+     */
+    public void setAtlas(boolean atlas) {
+        this.atlas = atlas;
+    }
+
+    /**
+     * @param dedup write identical slices once, see SliceDeduplicator
+     */
+    public void setDedup(boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    /**
+     * @param borderImage render single stretch patches as one css border-image, see NinePatch.getBorderImageHTML
+     *   not used with atlas (Main rejects the combination), a border-image can not address a part of a sheet
+     */
+    public void setBorderImage(boolean borderImage) {
+        this.borderImage = borderImage;
+    }
+
+    /**
+     * @param regionDecode never decode a whole image, read the frame and every slice as its own region,
+     *   see NinePatch.readRegions. Densities still decode the whole image, Main rejects the combination.
+     */
+    public void setRegionDecode(boolean regionDecode) {
+        this.regionDecode = regionDecode;
+    }
+
+    /**
+     * @param minify html without line breaks and indentation, see NinePatch.writeHTML
+     */
+    public void setMinify(boolean minify) {
+        this.minify = minify;
+    }
+
+    /**
+     * @param sourceDensity the files are drawn for @<sourceDensity>x, write @1x ... @<sourceDensity>x slices
+     *   and image-set html, see DensityVariants. 1 writes the file as it is.
+     *   Not used with atlas (Main rejects the combination), dedup or border-image patches are sliced like the others.
+     * @throws IllegalArgumentException sourceDensity is below 1
+     */
+    public void setDensities(int sourceDensity) {
+        if (sourceDensity < 1) {
+            throw new IllegalArgumentException("density " + sourceDensity + " is below 1");
+        }
+        this.densities = sourceDensity > 1 ? new DensityVariants(sourceDensity) : null;
+    }
+
+    /**
+     * @param metrics receives stage timing of every file, may be null
+     */
+    public void setMetrics(BuildMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     *
+     * @param files 9-Patch png files
+     * @param imagesDirectory slice images output directory
+     * @param htmls receive getHTML() results, same order as files
+     * @param ids receive patch names, same order as files
+     */
+    public void process(File[] files, String imagesDirectory, ArrayList<String> htmls, ArrayList<String> ids) {
+
+        if (atlas) {
+            processAtlas(files, imagesDirectory, htmls, ids);
+            return;
+        }
+        finish(submit(files, imagesDirectory, cache), htmls, ids);
+    }
+
+    /**
+     * Queue the files on the pool and return at once, not used with atlas.
+     * @param files 9-Patch png files
+     * @param imagesDirectory slice images output directory
+     * @param cache build manifest of that directory, null processes every file
+     */
+    public Batch submit(File[] files, final String imagesDirectory, final BuildCache cache) {
+
+        final SliceDeduplicator deduplicator = dedup ? new SliceDeduplicator() : null;
+        return new Batch(submit(files, new FileTask<String[]>() {
+            public String[] call(File file) throws IOException {
+                String hash = null;
+                if (cache != null) {
+                    hash = BuildCache.hash(file);
+                    String[] cached = cache.lookup(file.getName(), hash, imagesDirectory);
+                    if (cached != null) {
+                        BuildMetrics.cached();
+                        return cached;
+                    }
+                }
+                NinePatch np = parse(file);
+                // [id, html]
+                String[] result;
+                if (densities != null) {
+                    // every density is resampled from the one decoded image, the html is laid out at @1x
+                    NinePatch base = np;
+                    for (int d = densities.getSourceDensity(); d >= 1; d--) {
+                        NinePatch scaled = d == densities.getSourceDensity() ? np : np.scale(d, densities.getSourceDensity());
+                        scaled.slice(imagesDirectory, densities.writer(d));
+                        if (scaled != np) {
+                            scaled.release();
+                        }
+                        base = scaled;
+                    }
+                    np.release();
+                    long start = System.nanoTime();
+                    result = new String[]{np.getId(), base.getHTML(np.getId(), densities, minify)};
+                    BuildMetrics.stage(BuildMetrics.HTML, start);
+                } else if (borderImage && np.isBorderImage()) {
+                    np.writeBorderImage(imagesDirectory);
+                    np.release();
+                    long start = System.nanoTime();
+                    result = new String[]{np.getId(), np.getBorderImageHTML(np.getId(), minify)};
+                    BuildMetrics.stage(BuildMetrics.HTML, start);
+                } else {
+                    np.slice(imagesDirectory, deduplicator);
+                    np.release();
+                    long start = System.nanoTime();
+                    result = new String[]{np.getId(), np.getHTML(np.getId(), deduplicator == null ? SliceReference.FILES : deduplicator, minify)};
+                    BuildMetrics.stage(BuildMetrics.HTML, start);
+                }
+                report(np);
+                if (cache != null) {
+                    cache.put(file.getName(), hash, np.getId(), result[1]);
+                }
+                return result;
+            }
+        }));
+    }
+
+    /**
+     * Wait for a submitted batch.
+     * @param htmls receive getHTML() results, same order as files
+     * @param ids receive patch names, same order as files
+     */
+    public void finish(Batch batch, ArrayList<String> htmls, ArrayList<String> ids) {
+        for (String[] result : collect(batch.futures)) {
+            ids.add(result[0]);
+            htmls.add(result[1]);
+        }
+    }
+
+    /**
+     * Workers parse and slice, sheet slices are copied into one atlas part per file.
+     * The parts are merged in file order, packed once, then every patch is rendered against the atlas.
+     * The build cache is not used, a sheet depends on every file of the directory.
+     * Identical sheet slices are always packed once.
+     */
+    private void processAtlas(File[] files, final String imagesDirectory, ArrayList<String> htmls, ArrayList<String> ids) {
+
+        ArrayList<Object[]> parsed = collect(submit(files, new FileTask<Object[]>() {
+            public Object[] call(File file) throws IOException {
+                NinePatch np = parse(file);
+                SpriteAtlas part = new SpriteAtlas();
+                np.slice(imagesDirectory, part);
+                np.release();
+                report(np);
+                // [NinePatch, SpriteAtlas, FileMetrics]
+                return new Object[]{np, part, BuildMetrics.current()};
+            }
+        }));
+
+        SpriteAtlas sprites = new SpriteAtlas();
+        for (Object[] p : parsed) {
+            sprites.addAll((SpriteAtlas) p[1]);
+        }
+        long start = System.nanoTime();
+        long sheetBytes = sprites.write(imagesDirectory);
+        if (metrics != null) {
+            // the sheets are written outside any file, their bytes are counted for the run
+            metrics.addRunStage("atlas", System.nanoTime() - start);
+            metrics.addRunBytes("atlas", sheetBytes);
+        }
+
+        for (Object[] p : parsed) {
+            NinePatch np = (NinePatch) p[0];
+            ids.add(np.getId());
+            start = System.nanoTime();
+            htmls.add(np.getHTML(np.getId(), sprites, minify));
+            if (p[2] != null) {
+                ((BuildMetrics.FileMetrics) p[2]).add(BuildMetrics.HTML, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private NinePatch parse(File file) throws IOException {
+        return regionDecode ? NinePatch.readRegions(file.getCanonicalFile()) : NinePatch.read(file.getCanonicalFile());
+    }
+
+    private static void report(NinePatch np) {
+        BuildMetrics.peakDecoded(np.getPeakDecodedBytes());
+        if (Log.isDebug()) {
+            Log.debug(np.getId() + " peak decoded " + (np.getPeakDecodedBytes() + 1023) / 1024 + " KB");
+        }
+    }
+
+    private interface FileTask<T> {
+        T call(File file) throws IOException;
+    }
+
+    /**
+     * Stop the workers and wait for them, pending files are dropped. A later batch starts a new pool.
+     */
+    public synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pool = null;
+        }
+    }
+
+    private synchronized ExecutorService pool() {
+        if (pool == null) {
+            // one task per file, submitted from outside the pool and never forked, so nothing is stolen:
+            // the pool is one queue shared by all workers, an idle worker takes the next file of any folder.
+            // Idle workers end after a while and free their codecs, see WORKERS
+            pool = new ForkJoinPool(threads, WORKERS, null, false);
+        }
+        return pool;
+    }
+
+    /**
+     * Queue the task for every file on the pool.
+     */
+    private <T> ArrayList<Future<T>> submit(File[] files, final FileTask<T> task) {
+
+        ExecutorService pool = pool();
+        ArrayList<Future<T>> futures = new ArrayList<Future<T>>();
+        for (int i = 0; i < files.length; i++) {
+            final File file = files[i];
+            futures.add(pool.submit(new Callable<T>() {
+                public T call() throws IOException {
+                    if (metrics == null) {
+                        return task.call(file);
+                    }
+                    BuildMetrics.FileMetrics measured = metrics.begin(file.getName());
+                    boolean failed = true;
+                    try {
+                        T result = task.call(file);
+                        failed = false;
+                        return result;
+                    } finally {
+                        metrics.end(measured, failed);
+                    }
+                }
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * Wait for the queued files.
+     * @return results in file order, files that failed are reported and left out
+     */
+    private static <T> ArrayList<T> collect(ArrayList<Future<T>> futures) {
+
+        ArrayList<T> results = new ArrayList<T>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                Throwable failure = failure(e);
+                if (failure instanceof NinePatchException) {
+                    // invalid 9-Patch, the message names the file and the rule
+                    Log.error(failure.getMessage());
+                } else {
+                    failure.printStackTrace();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (int j = i; j < futures.size(); j++) {
+                    futures.get(j).cancel(true);
+                }
+                break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The exception of the task. ForkJoinPool wraps a checked exception in a RuntimeException
+     * and get() rethrows a copy of the same type around it.
+     */
+    private static Throwable failure(ExecutionException e) {
+        Throwable failure = e.getCause();
+        while (failure.getCause() != null
+                && (failure.getClass() == RuntimeException.class || failure.getClass() == failure.getCause().getClass())) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+}
@@ -0,0 +1,201 @@
+package com.xiaer;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Properties;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Incremental build manifest, [src]/.html9patch.cache
+ *   Keyed by the SHA-1 of each .9.png, it keeps the getHTML() output,
+ *   so an unchanged patch is neither decoded, sliced nor encoded again.
+ *   The slice files a cached patch needs are the images its html refers to, they are checked on lookup.
+ *   <name>.9.png.hash   = sha-1 hex
+ *   <name>.9.png.id     = btn
+ *   <name>.9.png.html   = <div id='btn' class='nine-patch'>...
+ */
+public class BuildCache {
+
+    /**
+     * Bump when slices or html output change, a manifest of another version is dropped.
+     */
+    public static final String GENERATOR_VERSION = "1";
+
+    public static final String FILE_NAME = ".html9patch.cache";
+
+    private static final String VERSION_KEY = "generator.version";
+
+    private static final String[] KEYS = {".hash", ".id", ".html"};
+
+    private final String version;
+    private final File manifest;
+    private final Properties previous = new Properties();
+    private final Properties current = new Properties();
+
+    /**
+     *
+     * @param srcDirectory 9-Patch directory, the manifest is kept next to html9patch.js
+     * @param options output options that change slices or html, a manifest written with other options is dropped
+     */
+    public BuildCache(String srcDirectory, String options) {
+        this.version = GENERATOR_VERSION + (options.length() == 0 ? "" : "/" + options);
+        this.manifest = new File(srcDirectory, FILE_NAME);
+        if (manifest.isFile()) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(manifest);
+                previous.load(in);
+            } catch (IOException e) {
+                previous.clear();
+            } finally {
+                close(in);
+            }
+            if (!version.equals(previous.getProperty(VERSION_KEY))) {
+                previous.clear();
+            }
+        }
+        current.setProperty(VERSION_KEY, version);
+    }
+
+    /**
+     * @param file 9-Patch png
+     * @return sha-1 hex of the file content
+     * @throws IOException
+     */
+    public static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.toString());
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Reuse a previous result when the content hash matches and every image the html refers to is still on disk.
+     * @param name 9-Patch file name, btn.9.png
+     * @param hash content hash
+     * @param imagesDirectory slice images directory
+     * @return [id, html], or null when the patch must be processed
+     */
+    public String[] lookup(String name, String hash, String imagesDirectory) {
+        if (!hash.equals(previous.getProperty(name + ".hash"))) {
+            return null;
+        }
+        String id = previous.getProperty(name + ".id");
+        String html = previous.getProperty(name + ".html");
+        if (id == null || html == null) {
+            return null;
+        }
+        for (String image : referencedImages(html)) {
+            if (!new File(imagesDirectory, image).isFile()) {
+                return null;
+            }
+        }
+        copy(name, previous, current);
+        return new String[]{id, html};
+    }
+
+    /**
+     * Record a freshly processed patch.
+     */
+    public void put(String name, String hash, String id, String html) {
+        synchronized (current) {
+            current.setProperty(name + ".hash", hash);
+            current.setProperty(name + ".id", id);
+            current.setProperty(name + ".html", html);
+        }
+    }
+
+    /**
+     * Forget a deleted patch.
+     * @param name 9-Patch file name, btn.9.png
+     */
+    public void remove(String name) {
+        synchronized (current) {
+            for (String key : KEYS) {
+                current.remove(name + key);
+            }
+        }
+    }
+
+    /**
+     * Write the manifest, entries of patches not seen in this run are dropped.
+     */
+    public void save() {
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(manifest);
+            synchronized (current) {
+                current.store(out, "html9patch build cache");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            close(out);
+        }
+    }
+
+    /**
+     * Image file names in the html, ... url(" + imageDirectory + "btn_0.png) ...
+     */
+    static ArrayList<String> referencedImages(String html) {
+        ArrayList<String> images = new ArrayList<String>();
+        String marker = "imageDirectory + \"";
+        int start = 0;
+        while ((start = html.indexOf(marker, start)) != -1) {
+            start += marker.length();
+            int end = html.indexOf(')', start);
+            if (end == -1) {
+                break;
+            }
+            images.add(html.substring(start, end));
+            start = end;
+        }
+        return images;
+    }
+
+    private static void copy(String name, Properties from, Properties to) {
+        synchronized (to) {
+            for (String key : KEYS) {
+                to.setProperty(name + key, from.getProperty(name + key));
+            }
+        }
+    }
+
+    private static void close(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.xiaer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Per file stage timing of a batch run, --report <file.json | file.csv> writes it out.
+ *   decode   ImageIO.read, or the header and frame passes of readRegions()
+ *   scan     edge pixels, 9-Patch rule checks, slice table and filler tags
+ *   runs     EdgeAnalyzer run detection on the four edges
+ *   slice    getSubimage, or the region decode of every slice
+ *   encode   png encoding and writing of slices
+ *   html     getHTML() / getBorderImageHTML()
+ * Besides the stages every file counts slices, bytes written, the largest pixel buffer decoded at once
+ * and bytes allocated by its worker thread (com.sun.management.ThreadMXBean, -1 when the JVM does not support it).
+ * Run level stages, atlas sheets and html9patch.js, are timed once, bytes of atlas sheets are counted for the run.
+ *   A worker registers its file in a ThreadLocal, NinePatch and UtilTools add to it without any parameter,
+ *   code running outside a batch (library use, --serve) finds no file and records nothing.
+ */
+public class BuildMetrics {
+
+    public static final int DECODE = 0;
+    public static final int SCAN = 1;
+    public static final int RUNS = 2;
+    public static final int SLICE = 3;
+    public static final int ENCODE = 4;
+    public static final int HTML = 5;
+
+    private static final String[] STAGES = {"decode", "scan", "runs", "slice", "encode", "html"};
+
+    private static final ThreadLocal<FileMetrics> CURRENT = new ThreadLocal<FileMetrics>();
+
+    private final long start = System.nanoTime();
+    private final ArrayList<FileMetrics> files = new ArrayList<FileMetrics>();
+    private final LinkedHashMap<String, Long> runStages = new LinkedHashMap<String, Long>();
+    private final LinkedHashMap<String, Long> runBytes = new LinkedHashMap<String, Long>();
+
+    /**
+     * Measurements of one .9.png
+     */
+    static final class FileMetrics {
+        final String name;
+        final long[] nanos = new long[STAGES.length];
+        boolean cached;
+        boolean failed;
+        int slices;
+        long bytes;
+        long peakDecoded;
+        long allocated = -1;
+        private final long allocatedStart;
+
+        private FileMetrics(String name) {
+            this.name = name;
+            this.allocatedStart = allocatedBytes();
+        }
+
+        void add(int stage, long nanos) {
+            this.nanos[stage] += nanos;
+        }
+    }
+
+    /**
+     * Start measuring a file on the calling thread
+     */
+    FileMetrics begin(String name) {
+        FileMetrics file = new FileMetrics(name);
+        CURRENT.set(file);
+        return file;
+    }
+
+    /**
+     * Stop measuring the file of the calling thread
+     * @param failed the file was not processed
+     */
+    void end(FileMetrics file, boolean failed) {
+        CURRENT.remove();
+        long allocated = allocatedBytes();
+        if (allocated != -1 && file.allocatedStart != -1) {
+            file.allocated = allocated - file.allocatedStart;
+        }
+        file.failed = failed;
+        synchronized (files) {
+            files.add(file);
+        }
+    }
+
+    /**
+     * Time of a step done once per run, html9patch.js, atlas sheets
+     */
+    synchronized void addRunStage(String name, long nanos) {
+        Long previous = runStages.get(name);
+        runStages.put(name, (previous == null ? 0 : previous) + nanos);
+    }
+
+    /**
+     * Png bytes written once per run, atlas sheets
+     */
+    synchronized void addRunBytes(String name, long bytes) {
+        Long previous = runBytes.get(name);
+        runBytes.put(name, (previous == null ? 0 : previous) + bytes);
+    }
+
+    /**
+     * Add System.nanoTime() - start to a stage of the file measured on this thread, if any
+     */
+    static void stage(int stage, long start) {
+        FileMetrics file = CURRENT.get();
+        if (file != null) {
+            file.nanos[stage] += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Count one slice of the file measured on this thread
+     */
+    static void slice() {
+        FileMetrics file = CURRENT.get();
+        if (file != null) {
+            file.slices++;
+        }
+    }
+
+    /**
+     * Count png bytes written for the file measured on this thread
+     */
+    static void written(long bytes) {
+        FileMetrics file = CURRENT.get();
+        if (file != null) {
+            file.bytes += bytes;
+        }
+    }
+
+    /**
+     * @param bytes NinePatch.getPeakDecodedBytes() of the file measured on this thread
+     */
+    static void peakDecoded(long bytes) {
+        FileMetrics file = CURRENT.get();
+        if (file != null) {
+            file.peakDecoded = bytes;
+        }
+    }
+
+    /**
+     * @return the file measured on this thread, null outside a measured task
+     */
+    static FileMetrics current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @return true while a file is measured on this thread, extra work like stat calls is skipped otherwise
+     */
+    static boolean measuring() {
+        return CURRENT.get() != null;
+    }
+
+    static void cached() {
+        FileMetrics file = CURRENT.get();
+        if (file != null) {
+            file.cached = true;
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return files sorted by name, failed ones included
+     */
+    private ArrayList<FileMetrics> files() {
+        ArrayList<FileMetrics> sorted;
+        synchronized (files) {
+            sorted = new ArrayList<FileMetrics>(files);
+        }
+        Collections.sort(sorted, new Comparator<FileMetrics>() {
+            public int compare(FileMetrics a, FileMetrics b) {
+                return a.name.compareTo(b.name);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * 9 files (2 cached, 0 failed), 76 slices, 14 KB written (3 KB atlas), 31 MB allocated, 412 ms; stages over all workers: decode 40 ms, ...
+     */
+    public String summary() {
+        int cached = 0;
+        int failed = 0;
+        int slices = 0;
+        long bytes = 0;
+        long allocated = 0;
+        long[] stages = new long[STAGES.length];
+        ArrayList<FileMetrics> all = files();
+        for (FileMetrics file : all) {
+            cached += file.cached ? 1 : 0;
+            failed += file.failed ? 1 : 0;
+            slices += file.slices;
+            bytes += file.bytes;
+            allocated += Math.max(0, file.allocated);
+            for (int s = 0; s < STAGES.length; s++) {
+                stages[s] += file.nanos[s];
+            }
+        }
+        StringBuilder run = new StringBuilder();
+        synchronized (this) {
+            for (Map.Entry<String, Long> written : runBytes.entrySet()) {
+                bytes += written.getValue();
+                run.append(run.length() == 0 ? " (" : ", ").append((written.getValue() + 1023) / 1024).append(" KB ").append(written.getKey());
+            }
+        }
+        if (run.length() > 0) {
+            run.append(')');
+        }
+        StringBuilder line = new StringBuilder();
+        line.append(all.size()).append(" files (").append(cached).append(" cached, ").append(failed).append(" failed), ")
+                .append(slices).append(" slices, ").append((bytes + 1023) / 1024).append(" KB written").append(run).append(", ")
+                .append((allocated + 1024 * 1024 - 1) / (1024 * 1024)).append(" MB allocated, ")
+                .append((System.nanoTime() - start) / 1000000).append(" ms; stages over all workers:");
+        for (int s = 0; s < STAGES.length; s++) {
+            line.append(s == 0 ? " " : ", ").append(STAGES[s]).append(' ').append(stages[s] / 1000000).append(" ms");
+        }
+        synchronized (this) {
+            for (Map.Entry<String, Long> stage : runStages.entrySet()) {
+                line.append(", ").append(stage.getKey()).append(' ').append(stage.getValue() / 1000000).append(" ms");
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Write the report, CSV when the name ends with .csv, JSON otherwise
+     */
+    public void write(File report) throws IOException {
+        Writer o = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(report), "utf-8"));
+        try {
+            if (report.getName().toLowerCase().endsWith(".csv")) {
+                writeCsv(o);
+            } else {
+                writeJson(o);
+            }
+        } finally {
+            o.close();
+        }
+    }
+
+    private void writeCsv(Writer o) throws IOException {
+        o.write("file,cached,failed");
+        for (String stage : STAGES) {
+            o.write("," + stage + "_ms");
+        }
+        o.write(",slices,bytes,peak_decoded_bytes,allocated_bytes\r\n");
+        for (FileMetrics file : files()) {
+            o.write(file.name.indexOf(',') != -1 || file.name.indexOf('"') != -1
+                    ? "\"" + file.name.replace("\"", "\"\"") + "\"" : file.name);
+            o.write("," + file.cached + "," + file.failed);
+            for (long nanos : file.nanos) {
+                o.write("," + ms(nanos));
+            }
+            o.write("," + file.slices + "," + file.bytes + "," + file.peakDecoded + "," + file.allocated + "\r\n");
+        }
+        // run level bytes, one row each named (atlas), only the bytes column is filled
+        synchronized (this) {
+            for (Map.Entry<String, Long> written : runBytes.entrySet()) {
+                o.write("(" + written.getKey() + "),,");
+                for (int s = 0; s < STAGES.length; s++) {
+                    o.write(",");
+                }
+                o.write(",," + written.getValue() + ",,\r\n");
+            }
+        }
+    }
+
+    private void writeJson(Writer o) throws IOException {
+        o.write("{\r\n");
+        o.write("\t\"generator\": \"" + BuildCache.GENERATOR_VERSION + "\",\r\n");
+        o.write("\t\"wall_ms\": " + ms(System.nanoTime() - start) + ",\r\n");
+        o.write("\t\"run\": {");
+        synchronized (this) {
+            boolean first = true;
+            for (Map.Entry<String, Long> stage : runStages.entrySet()) {
+                o.write((first ? "" : ", ") + "\"" + stage.getKey() + "_ms\": " + ms(stage.getValue()));
+                first = false;
+            }
+            for (Map.Entry<String, Long> written : runBytes.entrySet()) {
+                o.write((first ? "" : ", ") + "\"" + written.getKey() + "_bytes\": " + written.getValue());
+                first = false;
+            }
+        }
+        o.write("},\r\n");
+        o.write("\t\"files\": [");
+        ArrayList<FileMetrics> all = files();
+        for (int f = 0; f < all.size(); f++) {
+            FileMetrics file = all.get(f);
+            o.write(f == 0 ? "\r\n" : ",\r\n");
+            o.write("\t\t{\"file\": \"" + file.name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+            o.write(", \"cached\": " + file.cached + ", \"failed\": " + file.failed);
+            for (int s = 0; s < STAGES.length; s++) {
+                o.write(", \"" + STAGES[s] + "_ms\": " + ms(file.nanos[s]));
+            }
+            o.write(", \"slices\": " + file.slices + ", \"bytes\": " + file.bytes
+                    + ", \"peak_decoded_bytes\": " + file.peakDecoded + ", \"allocated_bytes\": " + file.allocated + "}");
+        }
+        o.write("\r\n\t]\r\n}\r\n");
+    }
+
+    private static String ms(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1000000.0);
+    }
+}
@@ -0,0 +1,182 @@
+package com.xiaer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * One png reader and one PngEncoder per thread for every decode and encode of the tool.
+ *   ImageIO.read looks the reader up in the service registry and allocates a new one on every call,
+ *   a pooled reader is looked up once per thread and reset after each use.
+ *   Lifecycle: codecs are created on first use of a thread and live as long as the thread.
+ *   A worker frees its own with disposeThread() when it ends (BatchProcessor workers do), codecs of threads
+ *   that ended without it are freed the next time a thread registers. disposeAll() frees every codec of every thread
+ *   once the workers are idle (end of a run, after a --watch rebuild, RenderServer.stop), a thread that decodes
+ *   again afterwards gets new ones.
+ *   Hits and misses are counted, --verbose prints them at the end of a run.
+ */
+public final class CodecPool {
+
+    private static final ThreadLocal<Codecs> CODECS = new ThreadLocal<Codecs>();
+
+    /**
+     * Codecs of live threads, for disposeAll()
+     */
+    private static final ArrayList<Codecs> ALL = new ArrayList<Codecs>();
+
+    private static final AtomicLong readerHits = new AtomicLong();
+    private static final AtomicLong readerMisses = new AtomicLong();
+    private static final AtomicLong encoderHits = new AtomicLong();
+    private static final AtomicLong encoderMisses = new AtomicLong();
+
+    /**
+     * Codecs of one thread
+     */
+    private static final class Codecs {
+        // weak, the list must not keep an ended thread
+        final WeakReference<Thread> owner = new WeakReference<Thread>(Thread.currentThread());
+        ImageReader reader;
+        PngEncoder encoder;
+        volatile boolean disposed;
+
+        boolean ownerAlive() {
+            Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
+
+        void dispose() {
+            disposed = true;
+            if (reader != null) {
+                reader.dispose();
+                reader = null;
+            }
+            if (encoder != null) {
+                encoder.end();
+                encoder = null;
+            }
+        }
+    }
+
+    private CodecPool() {
+    }
+
+    /**
+     * The png reader of the calling thread, bound to in. Call done() when the image is read.
+     * @param in png data
+     * @return null when in is not a png
+     */
+    static ImageReader reader(ImageInputStream in) throws IOException {
+        Codecs codecs = codecs();
+        if (codecs.reader == null) {
+            readerMisses.incrementAndGet();
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("png");
+            if (!readers.hasNext()) {
+                throw new IOException("No png reader");
+            }
+            codecs.reader = readers.next();
+        } else {
+            readerHits.incrementAndGet();
+        }
+        // the signature check marks and resets the stream, a file shorter than the signature is no png, like ImageIO.read
+        try {
+            if (!codecs.reader.getOriginatingProvider().canDecodeInput(in)) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        codecs.reader.setInput(in, true, true);
+        return codecs.reader;
+    }
+
+    /**
+     * Unbind the reader from its stream, it keeps no pixels or input of the last image
+     */
+    static void done(ImageReader reader) {
+        reader.reset();
+    }
+
+    /**
+     * @return the png encoder of the calling thread, its deflater and buffers are reused for every slice
+     */
+    static PngEncoder encoder(int level, boolean reduce) {
+        Codecs codecs = codecs();
+        PngEncoder encoder = codecs.encoder;
+        if (encoder == null || encoder.getLevel() != level || encoder.isReduce() != reduce) {
+            encoderMisses.incrementAndGet();
+            if (encoder != null) {
+                encoder.end();
+            }
+            encoder = new PngEncoder(level, reduce);
+            codecs.encoder = encoder;
+        } else {
+            encoderHits.incrementAndGet();
+        }
+        return encoder;
+    }
+
+    private static Codecs codecs() {
+        Codecs codecs = CODECS.get();
+        if (codecs == null || codecs.disposed) {
+            codecs = new Codecs();
+            CODECS.set(codecs);
+            synchronized (ALL) {
+                // an ended thread can not use its codecs any more
+                Iterator<Codecs> all = ALL.iterator();
+                while (all.hasNext()) {
+                    Codecs other = all.next();
+                    if (!other.ownerAlive()) {
+                        other.dispose();
+                        all.remove();
+                    }
+                }
+                ALL.add(codecs);
+            }
+        }
+        return codecs;
+    }
+
+    /**
+     * Dispose the reader and end the encoder of the calling thread, called by a worker thread when it ends.
+     */
+    static void disposeThread() {
+        Codecs codecs = CODECS.get();
+        if (codecs == null) {
+            return;
+        }
+        CODECS.remove();
+        synchronized (ALL) {
+            ALL.remove(codecs);
+            codecs.dispose();
+        }
+    }
+
+    /**
+     * Dispose the readers and end the encoders of all threads. No thread may be decoding or encoding.
+     */
+    public static void disposeAll() {
+        synchronized (ALL) {
+            for (Codecs codecs : ALL) {
+                codecs.dispose();
+            }
+            ALL.clear();
+        }
+    }
+
+    /**
+     * readers 9 hits / 4 misses, encoders 90 hits / 4 misses
+     */
+    public static String summary() {
+        return "readers " + readerHits.get() + " hits / " + readerMisses.get() + " misses, " +
+                "encoders " + encoderHits.get() + " hits / " + encoderMisses.get() + " misses";
+    }
+}
@@ -0,0 +1,150 @@
+package com.xiaer;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * --densities N, every .9.png is drawn for @Nx screens and written at @1x ... @Nx.
+ *   The source is decoded once, NinePatch.scale() resamples it for every smaller density.
+ *   Slices are images/<id>_<index>.png at @1x and images/<id>_<index>@<d>x.png above,
+ *   the html is laid out in @1x css pixels and every td picks its slice through image-set:
+ *     background-image:url(btn_0.png);
+ *     background-image:-webkit-image-set(url(btn_0.png) 1x, url(btn_0@2x.png) 2x);
+ *     background-image:image-set(url(btn_0.png) 1x, url(btn_0@2x.png) 2x);
+ *   Browsers without image-set keep the @1x url, background-size 100% 100% fills the td at every density.
+ */
+public class DensityVariants implements SliceReference {
+
+    private final int sourceDensity;
+
+    /**
+     *
+     * @param sourceDensity density the .9.png files are drawn for, 2 for @2x
+     */
+    public DensityVariants(int sourceDensity) {
+        this.sourceDensity = sourceDensity;
+    }
+
+    public int getSourceDensity() {
+        return sourceDensity;
+    }
+
+    /**
+     * @return "" for @1x, "@2x" for 2
+     */
+    public static String suffix(int density) {
+        return density == 1 ? "" : "@" + density + "x";
+    }
+
+    public String background(String id, int index) {
+        StringBuilder set = new StringBuilder();
+        for (int d = 1; d <= sourceDensity; d++) {
+            if (d > 1) {
+                set.append(", ");
+            }
+            set.append("url(\" + imageDirectory + \"").append(id).append('_').append(index).append(suffix(d)).append(".png) ").append(d).append('x');
+        }
+        return FILES.background(id, index) +
+                " background-image:-webkit-image-set(" + set + ");" +
+                " background-image:image-set(" + set + ");";
+    }
+
+    /**
+     * @return writes the slices of a patch scaled to density as images/<id>_<index><suffix>.png
+     */
+    public SliceHandler writer(int density) {
+        final String suffix = suffix(density);
+        return new SliceHandler() {
+            public boolean handle(String id, int index, int sliceType, BufferedImage slice, String imagesDirectory) {
+                UtilTools.write(slice, imagesDirectory + System.getProperty("file.separator") + id + "_" + index + suffix + ".png");
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Area average downscale, every target pixel is the coverage weighted mean of the source pixels under it.
+     * Channels are averaged premultiplied, transparent pixels do not darken antialiased edges.
+     * @param src source pixels
+     * @param w target width, at most the source width
+     * @param h target height, at most the source height
+     * @return w * h default ARGB pixels
+     */
+    static int[] resample(BufferedImage src, int w, int h) {
+
+        int sw = src.getWidth();
+        int sh = src.getHeight();
+        int[] argb = UtilTools.getARGB(src, 0, 0, sw, sh, null);
+
+        // premultiplied a, r, g, b after the horizontal pass, w * sh
+        float[] rows = new float[w * sh * 4];
+        int[][] xSources = new int[w][];
+        float[][] xWeights = new float[w][];
+        weights(sw, w, xSources, xWeights);
+        for (int y = 0; y < sh; y++) {
+            for (int x = 0; x < w; x++) {
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int k = 0; k < xSources[x].length; k++) {
+                    int p = argb[y * sw + xSources[x][k]];
+                    float weight = xWeights[x][k];
+                    float alpha = (p >>> 24) * weight;
+                    a += alpha;
+                    r += ((p >> 16) & 0xff) * alpha;
+                    g += ((p >> 8) & 0xff) * alpha;
+                    b += (p & 0xff) * alpha;
+                }
+                int o = (y * w + x) * 4;
+                rows[o] = a;
+                rows[o + 1] = r;
+                rows[o + 2] = g;
+                rows[o + 3] = b;
+            }
+        }
+
+        int[] out = new int[w * h];
+        int[][] ySources = new int[h][];
+        float[][] yWeights = new float[h][];
+        weights(sh, h, ySources, yWeights);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int k = 0; k < ySources[y].length; k++) {
+                    int o = (ySources[y][k] * w + x) * 4;
+                    float weight = yWeights[y][k];
+                    a += rows[o] * weight;
+                    r += rows[o + 1] * weight;
+                    g += rows[o + 2] * weight;
+                    b += rows[o + 3] * weight;
+                }
+                int alpha = Math.round(a);
+                out[y * w + x] = alpha == 0 ? 0 : alpha << 24
+                        | Math.min(255, Math.round(r / a)) << 16
+                        | Math.min(255, Math.round(g / a)) << 8
+                        | Math.min(255, Math.round(b / a));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Source pixels and their share of every target pixel along one axis
+     */
+    private static void weights(int sourceLength, int length, int[][] sources, float[][] weights) {
+        double scale = sourceLength / (double) length;
+        for (int t = 0; t < length; t++) {
+            double start = t * scale;
+            double end = Math.min(sourceLength, start + scale);
+            int first = (int) start;
+            int last = Math.min(sourceLength, (int) Math.ceil(end));
+            sources[t] = new int[last - first];
+            weights[t] = new float[last - first];
+            for (int s = first; s < last; s++) {
+                sources[t][s - first] = s;
+                weights[t][s - first] = (float) ((Math.min(end, s + 1) - Math.max(start, s)) / scale);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.xiaer;
+
+import java.util.Arrays;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Run detection on one 1px edge packed as a bitset, bit k set when pixel k is black (alpha 255).
+ *   A run ends where the next clear / set bit starts, found with Long.numberOfTrailingZeros a word at a time,
+ *   a 2000px strip with a few runs takes a few dozen word reads instead of 2000 int compares.
+ *   Min length and gcd of the black runs are kept while the runs are found,
+ *   Breadth-scale then needs one loop over the runs, not over the pixels.
+ */
+final class EdgeAnalyzer {
+
+    private EdgeAnalyzer() {
+    }
+
+    /**
+     * @param length edge pixels
+     * @return empty bitset for length pixels
+     */
+    static long[] bits(int length) {
+        return new long[(length + 63) >>> 6];
+    }
+
+    /**
+     * Mark pixel k black
+     */
+    static void set(long[] bits, int k) {
+        bits[k >>> 6] |= 1L << k;
+    }
+
+    /**
+     * @param alphas edge alphas, 0 or 255
+     * @return bitset of the 255 pixels
+     */
+    static long[] pack(int[] alphas) {
+        long[] bits = bits(alphas.length);
+        for (int k = 0; k < alphas.length; k++) {
+            if (alphas[k] == 255) {
+                set(bits, k);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @return 0 / 255 per pixel like the edge alphas, for --verbose
+     */
+    static String toString(long[] bits, int length) {
+        StringBuilder sb = new StringBuilder(length * 3 + 2);
+        sb.append('[');
+        for (int k = 0; k < length; k++) {
+            if (k > 0) {
+                sb.append(", ");
+            }
+            sb.append((bits[k >>> 6] & (1L << k)) != 0 ? "255" : "0");
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     *
+     * @param bits edge bitset, see bits()
+     * @param length edge pixels
+     * @return [SLICE_TYPE, Coordinate, Breadth, Breadth-scale] per run
+     */
+    static PatchDescriptor.EdgeRuns runs(long[] bits, int length) {
+
+        // a 9-Patch edge has a handful of runs, grown when a strip has more
+        int[] propertyList = new int[Math.min(length, 8) * 4];
+        int size = 0;
+        // min length and gcd of the lengths of the black (unfixed) runs
+        int min = 0;
+        int gcd = 0;
+
+        int start = 0;
+        while (start < length) {
+            boolean black = (bits[start >>> 6] & (1L << start)) != 0;
+            int end = black ? nextClear(bits, start, length) : nextSet(bits, start, length);
+            if (size * 4 == propertyList.length) {
+                propertyList = Arrays.copyOf(propertyList, propertyList.length * 2);
+            }
+            int runLength = end - start;
+            propertyList[size * 4] = black ? PatchDescriptor.SLICE_TYPE_UNFIXED : PatchDescriptor.SLICE_TYPE_FIXED;
+            propertyList[size * 4 + 1] = end - 1;
+            propertyList[size * 4 + 2] = runLength - 1;
+            propertyList[size * 4 + 3] = -1;
+            size++;
+            if (black) {
+                min = min == 0 ? runLength : Math.min(min, runLength);
+                gcd = gcd(gcd, runLength);
+            }
+            start = end;
+        }
+
+        // Breadth-scale, a multiple of the thinnest black run if every run divides, else the Breadth
+        boolean divisible = gcd == min;
+        for (int r = 0; r < size; r++) {
+            if (propertyList[r * 4] == PatchDescriptor.SLICE_TYPE_UNFIXED) {
+                propertyList[r * 4 + 3] = divisible ? ((propertyList[r * 4 + 2] + 1) / min) - 1 : propertyList[r * 4 + 2];
+            }
+        }
+
+        return new PatchDescriptor.EdgeRuns(propertyList, size);
+    }
+
+    /**
+     * @return first set bit at or after from, length if there is none
+     */
+    private static int nextSet(long[] bits, int from, int length) {
+        int w = from >>> 6;
+        long word = bits[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == bits.length) {
+                return length;
+            }
+            word = bits[w];
+        }
+        return Math.min(length, (w << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    /**
+     * @return first clear bit at or after from, length if there is none
+     */
+    private static int nextClear(long[] bits, int from, int length) {
+        int w = from >>> 6;
+        long word = ~bits[w] & (-1L << from);
+        while (word == 0) {
+            if (++w == bits.length) {
+                return length;
+            }
+            word = ~bits[w];
+        }
+        return Math.min(length, (w << 6) + Long.numberOfTrailingZeros(word));
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
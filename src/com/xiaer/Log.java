@@ -0,0 +1,66 @@
+package com.xiaer;
+
+import java.io.PrintStream;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Leveled console output, --verbose shows DEBUG.
+ *   Build debug messages only inside a level check, a quiet run then builds no strings at all:
+ *     if (Log.isDebug()) {
+ *         Log.debug(name + " " + Arrays.toString(topPixelList));
+ *     }
+ *   One call prints one message with a single println, lines of parallel workers do not interleave.
+ *   ERROR and WARN go to stderr, INFO and DEBUG to stdout.
+ */
+public final class Log {
+
+    public static final int ERROR = 0;
+    public static final int WARN = 1;
+    public static final int INFO = 2;
+    public static final int DEBUG = 3;
+
+    private static volatile int level = INFO;
+
+    private Log() {
+    }
+
+    /**
+     * @param level ERROR, WARN, INFO or DEBUG, messages above it are dropped
+     */
+    public static void setLevel(int level) {
+        Log.level = level;
+    }
+
+    public static boolean isDebug() {
+        return level >= DEBUG;
+    }
+
+    public static boolean isInfo() {
+        return level >= INFO;
+    }
+
+    public static void debug(String message) {
+        print(DEBUG, System.out, message);
+    }
+
+    public static void info(String message) {
+        print(INFO, System.out, message);
+    }
+
+    public static void warn(String message) {
+        print(WARN, System.err, message);
+    }
+
+    public static void error(String message) {
+        print(ERROR, System.err, message);
+    }
+
+    private static void print(int messageLevel, PrintStream out, String message) {
+        if (level >= messageLevel) {
+            out.println(message);
+        }
+    }
+}
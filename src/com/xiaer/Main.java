@@ -2,7 +2,10 @@ package com.xiaer;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.zip.Deflater;
 
 /**
  * Created by kimseongrim.
@@ -14,57 +17,264 @@ public class Main {
 
     public static void main(String[] args) {
 
-        // image directory URL directory is batch processing directory All 9-Patch PNG file.
-        File src = new File(args[0]);
-
-        // main
-        ArrayList<String> htmls = new ArrayList<String>();
-        ArrayList<String> ids = new ArrayList<String>();
-        String html = "";
-        String srcDirectory ="";
+        // options
+        int threads = 0;
+        boolean useCache = true;
+        boolean atlas = false;
+        boolean dedup = false;
+        boolean watch = false;
+        boolean borderImage = false;
+        boolean staticOutput = false;
+        boolean lazyStates = false;
+        boolean lowMemory = false;
+        boolean minify = false;
+        String report = null;
+        boolean serve = false;
+        int port = RenderServer.DEFAULT_PORT;
+        InetAddress host = null;
+        long cacheBytes = RenderServer.DEFAULT_CACHE_BYTES;
+        int densities = 1;
+        int pngLevel = PngEncoder.DEFAULT_LEVEL;
+        boolean pngReduce = true;
+        boolean recursive = false;
+        String merge = null;
+        String pack = null;
+        ArrayList<String> srcArgs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--no-cache")) {
+                useCache = false;
+            } else if (args[i].equals("--atlas")) {
+                atlas = true;
+            } else if (args[i].equals("--dedup")) {
+                dedup = true;
+            } else if (args[i].equals("--border-image")) {
+                borderImage = true;
+            } else if (args[i].equals("--lazy-states")) {
+                lazyStates = true;
+            } else if (args[i].equals("--static")) {
+                staticOutput = true;
+            } else if (args[i].equals("--minify")) {
+                minify = true;
+            } else if (args[i].equals("--low-memory")) {
+                lowMemory = true;
+            } else if (args[i].equals("--recursive")) {
+                recursive = true;
+            } else if (args[i].equals("--merge") && i + 1 < args.length) {
+                merge = args[++i];
+            } else if (args[i].equals("--pack") && i + 1 < args.length) {
+                pack = args[++i];
+            } else if (args[i].equals("--watch")) {
+                watch = true;
+            } else if (args[i].equals("--serve")) {
+                serve = true;
+            } else if (args[i].equals("--port") && i + 1 < args.length) {
+                try {
+                    port = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid port: " + args[i]);
+                    System.exit(0);
+                }
+            } else if (args[i].equals("--host") && i + 1 < args.length) {
+                try {
+                    host = InetAddress.getByName(args[++i]);
+                } catch (UnknownHostException e) {
+                    System.err.println("Invalid host: " + args[i]);
+                    System.exit(0);
+                }
+            } else if (args[i].equals("--cache-mb") && i + 1 < args.length) {
+                try {
+                    cacheBytes = Long.parseLong(args[++i]) * 1024 * 1024;
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid cache size: " + args[i]);
+                    System.exit(0);
+                }
+            } else if (args[i].equals("--densities") && i + 1 < args.length) {
+                try {
+                    densities = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    densities = 0;
+                }
+                if (densities < 1) {
+                    System.err.println("Invalid density: " + args[i]);
+                    System.exit(0);
+                }
+            } else if (args[i].equals("--png-level") && i + 1 < args.length) {
+                try {
+                    pngLevel = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    pngLevel = -1;
+                }
+                if (pngLevel < Deflater.NO_COMPRESSION || pngLevel > Deflater.BEST_COMPRESSION) {
+                    System.err.println("Invalid png level: " + args[i]);
+                    System.exit(0);
+                }
+            } else if (args[i].equals("--report") && i + 1 < args.length) {
+                report = args[++i];
+            } else if (args[i].equals("--verbose")) {
+                Log.setLevel(Log.DEBUG);
+            } else if (args[i].equals("--png-rgba")) {
+                pngReduce = false;
+            } else if ((args[i].equals("-t") || args[i].equals("--threads")) && i + 1 < args.length) {
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    System.err.println("Invalid thread count: " + args[i]);
+                    System.exit(0);
+                }
+            } else {
+                srcArgs.add(args[i]);
+            }
+        }
+        if (srcArgs.isEmpty()) {
+            System.err.println("Usage: java -jar html9patch.jar [-t threads] [--no-cache] [--atlas] [--dedup] [--border-image] [--densities n] [--static] [--lazy-states] [--minify] [--low-memory] [--watch] [--serve [--host addr] [--port n] [--cache-mb n]] [--png-level 0-9] [--png-rgba] [--report file.json|file.csv] [--verbose] [--recursive] [--merge dir] [--pack file.zip] [src ...]");
+            System.exit(0);
+        }
 
-        if(src.isDirectory()){
+        UtilTools.setPngOptions(pngLevel, pngReduce);
 
-            File[] fa = src.listFiles();
+        // image directory URL directory is batch processing directory All 9-Patch PNG file.
+        ArrayList<File> roots = new ArrayList<File>();
+        for (String srcArg : srcArgs) {
+            File src = new File(srcArg);
+            if (!src.isDirectory()) {
+                System.err.println("Directory does not exist");
+                System.exit(0);
+            }
             try {
-                srcDirectory = src.getCanonicalFile().toString();
+                roots.add(src.getCanonicalFile());
             } catch (IOException e) {
                 e.printStackTrace();
+                roots.add(src.getAbsoluteFile());
             }
-            NinePatch np;
+        }
+        if ((watch || serve) && (roots.size() > 1 || recursive || merge != null || pack != null)) {
+            System.err.println("--watch and --serve take one directory");
+            System.exit(0);
+        }
+        if (lowMemory && densities > 1) {
+            // every density is resampled from the whole image, see NinePatch.scale
+            System.err.println("--low-memory can not be used with --densities");
+            System.exit(0);
+        }
+        if (atlas && densities > 1) {
+            // a sheet is packed at one density, the html would lay out @<n>x art as @1x
+            System.err.println("--atlas can not be used with --densities");
+            System.exit(0);
+        }
+        if (atlas && borderImage) {
+            // a border-image can not address a part of a sheet
+            System.err.println("--atlas can not be used with --border-image");
+            System.exit(0);
+        }
+        String srcDirectory = roots.get(0).getPath();
 
+        if (serve) {
+            RenderServer server = new RenderServer(new File(srcDirectory), host, port, threads, cacheBytes);
+            try {
+                server.start();
+            } catch (IOException e) {
+                System.err.println("Can not listen on port " + port + ": " + e.getMessage());
+                System.exit(0);
+            }
+            Log.info("Serving " + srcDirectory + " on http://" + (host != null ? host.getHostAddress() : "localhost") + ":" + port + "/<id>.html");
+            return;
+        }
 
-            for(int i=0; i< fa.length; i++){
-                if(fa[i].getName().substring(fa[i].getName().length() - 6).equalsIgnoreCase(".9.png")){
+        // main
+        BuildMetrics metrics = new BuildMetrics();
+        SliceSink sink = SliceSink.DIRECTORY;
+        if (pack != null) {
+            try {
+                sink = new ZipSliceSink(new File(pack), merge != null ? new File(merge) : commonDirectory(roots));
+            } catch (IOException e) {
+                System.err.println("Can not create " + pack + ": " + e.getMessage());
+                System.exit(0);
+            }
+            // the archive is written from scratch, cached patches would lose their slices
+            useCache = false;
+        }
+        UtilTools.setSink(sink);
+        String cacheOptions = useCache ? (dedup ? "dedup" : "") + (borderImage ? "border" : "") + (densities > 1 ? "density" + densities : "") + (minify ? "minify" : "")
+                + (pngLevel != PngEncoder.DEFAULT_LEVEL ? "png" + pngLevel : "") + (pngReduce ? "" : "rgba") : null;
+        // --watch keeps its own manifest, TreeBuilder opens one per output directory
+        BuildCache cache = watch && cacheOptions != null && !atlas ? new BuildCache(srcDirectory, cacheOptions) : null;
+        BatchProcessor batch = new BatchProcessor(threads, cache);
+        batch.setAtlas(atlas);
+        batch.setDedup(dedup);
+        batch.setBorderImage(borderImage);
+        batch.setRegionDecode(lowMemory);
+        batch.setMinify(minify);
+        batch.setDensities(densities);
+        batch.setMetrics(metrics);
 
-                    try {
-                        np = new NinePatch(fa[i].getCanonicalFile());
-                        np.slice(srcDirectory + System.getProperty("file.separator") + "images");
-                        // get html code
-                        html = np.getHTML(np.srcName);
-                        htmls.add(html);
-                        ids.add(np.srcName);
-                        // init Array data
-                        np.clear();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
+        if (watch) {
+            try {
+                Watcher watcher = new Watcher(new File(srcDirectory), srcDirectory + System.getProperty("file.separator") + "images", batch, cache, atlas);
+                watcher.setStaticOutput(staticOutput);
+                watcher.setLazyStates(lazyStates);
+                watcher.run();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
+            return;
+        }
 
-            // Check directory has 9patch images?
-            if(htmls.isEmpty() ){
-                System.err.println("Directory No 9patch images.");
-                System.exit(0);
+        // one warm pool for every folder of every root
+        TreeBuilder builder = new TreeBuilder(batch, cacheOptions);
+        builder.setRecursive(recursive);
+        builder.setMergeDirectory(merge != null ? new File(merge) : null);
+        builder.setStaticOutput(staticOutput);
+        builder.setLazyStates(lazyStates);
+        builder.setMetrics(metrics);
+        int written = 0;
+        try {
+            written = builder.build(roots);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            batch.shutdown();
+            // the workers are gone, free their png readers and encoders
+            CodecPool.disposeAll();
+            try {
+                sink.close();
+            } catch (IOException e) {
+                System.err.println("Can not write " + pack + ": " + e.getMessage());
             }
+        }
+        if (Log.isDebug()) {
+            Log.debug("codecs: " + CodecPool.summary());
+        }
 
-        }else{
-            System.err.println("Directory does not exist");
+        // Check directory has 9patch images?
+        if (written == 0) {
+            System.err.println("Directory No 9patch images.");
             System.exit(0);
         }
 
-        // Create JS File
-        UtilTools.createJS(htmls, ids, srcDirectory);
+        if (Log.isInfo()) {
+            Log.info(metrics.summary());
+        }
+        if (report != null) {
+            try {
+                metrics.write(new File(report));
+            } catch (IOException e) {
+                System.err.println("Can not write report " + report + ": " + e.getMessage());
+            }
+        }
+
+    }
 
+    /**
+     * @return deepest directory that contains every root
+     */
+    private static File commonDirectory(ArrayList<File> roots) {
+        File common = roots.get(0);
+        for (File root : roots) {
+            while (!(root.getPath() + File.separator).startsWith(common.getPath() + File.separator)
+                    && common.getParentFile() != null) {
+                common = common.getParentFile();
+            }
+        }
+        return common;
     }
 }
@@ -1,20 +1,18 @@
 package com.xiaer;
 
-import javax.imageio.ImageIO;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
+import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
-import java.awt.*;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.ImageObserver;
-import java.awt.image.PixelGrabber;
+import java.awt.image.DataBuffer;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
 import java.util.Arrays;
-import java.util.Iterator;
 
 /**
  * Created by kimseongrim on 2/27/15.
@@ -29,488 +27,776 @@ import java.util.Iterator;
  * Draw 9-patch help
  * @link https://developer.android.com/tools/help/draw9patch.html
  *
+ * Library use
+ *   NinePatch np = NinePatch.read(file);         // or read(id, InputStream) / read(id, byte[])
+ *   np.slice(imagesDirectory);                  // or slice(handler), slices stay in memory
+ *   np.release();
+ *   String html = np.getHTML(np.getId());
+ *   NinePatch.readRegions(file) never holds the whole image, see below.
+ *   An invalid file throws NinePatchException, nothing exits the JVM.
+ *   A parsed NinePatch is immutable, slice() and getHTML() may be called from several threads.
  */
 public class NinePatch {
 
-    private static int SLICE_TYPE_FIXED = 0;
-    private static int SLICE_TYPE_UNFIXED = 1;
-    private static int SLICE_TYPE_REPEAT = 2;
-    private static int SLICE_TYPE_REPEAT_X = 3;
-    private static int SLICE_TYPE_REPEAT_Y = 4;
+    private final String name; /* btn.9.png, the id for streams */
+    private final String id; /* btn */
 
-    protected String src; /* /User/name/9patch/btn.9.png */
-    protected String src9patchName; /* btn.9.png */
-    protected String srcName = ""; /* btn */
-    protected String imgDirectory = "";
+    /**
+     * Decoded source image, kept after parsing so slice() cuts every tile from memory, null after release()
+     */
+    private volatile BufferedImage image;
+
+    /**
+     * readRegions() source, every slice is decoded from it on its own, null after release()
+     */
+    private volatile File source;
+
+    /**
+     * largest pixel buffer decoded at once, the whole image unless readRegions() was used
+     */
+    private long peakDecodedBytes;
 
     /**
      * 9-Patch feature analysis data
-     * ArrayList<int[]> ninePatchProperty
-     *    [
-     *      [SLICE_TYPE, row, column, x, y, width, height, scaleWidth, scaleHeight]
-     *      [SLICE_TYPE, row, column, x, y, width, height, scaleWidth, scaleHeight]
-     *      ...
-     *    ]
+     *   edge runs, slice table [SLICE_TYPE, row, column, x, y, width, height, scaleWidth, scaleHeight]
+     *   and content area, see PatchDescriptor
      */
-    private ArrayList<int[]> ninePatchProperty = new ArrayList<int[]>();
+    private final PatchDescriptor patch;
 
     /**
      *filler <td>String</td>
-     * ArrayList<String>
      * ["<img />", "<img />", "<br /><img /><br />", ...]
      */
-    private ArrayList<String> fillerTdTags = new ArrayList<String>();
+    private final String[] fillerTdTags;
 
     /**
-     * div input area
-     * ArrayList<Integer>
-     * [padding-top, padding-bottom, padding-left, padding-right]
+     * Parse a .9.png file, the id is the file name without .9.png
+     * @param src /User/name/9patch/btn.9.png
+     * @return parsed patch
+     * @throws NinePatchException not a valid 9-Patch png
+     * @throws IOException read error
      */
-    private ArrayList<Integer> contentArea = new ArrayList<Integer>();
+    public static NinePatch read(File src) throws IOException {
+
+        String name = checkName(src);
+        long start = System.nanoTime();
+        ImageInputStream in = new FileImageInputStream(src);
+        BufferedImage bi;
+        try {
+            bi = decode(in, null, 1, 1);
+        } finally {
+            in.close();
+        }
+        BuildMetrics.stage(BuildMetrics.DECODE, start);
+        return parse(name, name.substring(0, name.length() - 6), bi);
+    }
 
     /**
-     * ArrayList<Integer>
-     * 0:Alpha=0, 255:Alpha=255
-     * [0,0,0,0,255,255,255,255,0,...]
+     * Parse a .9.png file without decoding it as a whole, for images too large for the heap.
+     *   The png is decoded once for the top and bottom rows and once for the left and right columns
+     *   (ImageReadParam subsampling keeps only those pixels), slice() then decodes every slice
+     *   through ImageReadParam.setSourceRegion. The heap holds at most one slice, at the cost of
+     *   one pass over the compressed data per slice. writeBorderImage() still needs the whole image,
+     *   and so does scale(), a patch read this way decodes the whole image for every density.
+     * @param src /User/name/9patch/banner.9.png
+     * @return parsed patch, slice() reads src again
+     * @throws NinePatchException not a valid 9-Patch png
+     * @throws IOException read error
      */
-    private ArrayList<Integer> topPixelList = new ArrayList<Integer>();
-    private ArrayList<Integer> leftPixelList = new ArrayList<Integer>();
-    private ArrayList<Integer> rightPixelList = new ArrayList<Integer>();
-    private ArrayList<Integer> bottomPixelList = new ArrayList<Integer>();
+    public static NinePatch readRegions(File src) throws IOException {
+
+        String name = checkName(src);
+        String id = name.substring(0, name.length() - 6);
+        long start = System.nanoTime();
+        Rectangle size = decodeSize(src, name);
+        int w = size.width;
+        int h = size.height;
+        if (w < 3 || h < 3) {
+            throw new NinePatchException(NinePatchException.Reason.TOO_SMALL, name, "9-Patch, MUST be at least 3 x 3 px.");
+        }
+
+        // rows 0 and h - 1, columns 0 and w - 1
+        BufferedImage rows = decode(src, name, new Rectangle(0, 0, w, h), 1, h - 1);
+        BufferedImage columns = decode(src, name, new Rectangle(0, 0, w, h), w - 1, 1);
+        BuildMetrics.stage(BuildMetrics.DECODE, start);
+        NinePatch np = new NinePatch(name, id, w, h,
+                rows.getRGB(0, 0, w, 1, null, 0, w),
+                rows.getRGB(0, 1, w, 1, null, 0, w),
+                columns.getRGB(0, 1, 1, h - 2, null, 0, 1),
+                columns.getRGB(1, 1, 1, h - 2, null, 0, 1),
+                null);
+        np.source = src;
+        np.decodedBytes(rows);
+        np.decodedBytes(columns);
+        return np;
+    }
 
     /**
-     * ArrayList<int[]>
-     * [
-     *  [SLICE_TYPE, Coordinate, Breadth, Breadth-scale]
-     * ]
+     * @return the file name ends with .9.png, any case
      */
-    private ArrayList<int[]> topPropertyList = new ArrayList<int[]>();
-    private ArrayList<int[]> leftPropertyList = new ArrayList<int[]>();
-    private ArrayList<int[]> rightPropertyList = new ArrayList<int[]>();
-    private ArrayList<int[]> bottomPropertyList = new ArrayList<int[]>();
+    public static boolean isNinePatch(String fileName) {
+        return fileName.toLowerCase().endsWith(".9.png");
+    }
+
+    private static String checkName(File src) throws NinePatchException {
+        String name = src.getName();
+        // checking file name has .9.png
+        if (!isNinePatch(name)) {
+            throw new NinePatchException(NinePatchException.Reason.FILE_NAME, name, "NOT 9-Patch png file. <e.g. button.9.png>");
+        }
+        return name;
+    }
 
     /**
-     *
-     * @param src
+     * Parse a 9-Patch png from a stream, the stream is not closed
+     * @param id patch id, btn
+     * @param in png data
+     * @return parsed patch
+     * @throws NinePatchException not a valid 9-Patch png
+     * @throws IOException read error
      */
-    protected NinePatch(File src){
+    public static NinePatch read(String id, InputStream in) throws IOException {
+        long start = System.nanoTime();
+        // cached in memory, ImageIO.read would cache the stream in a temp file
+        ImageInputStream stream = new MemoryCacheImageInputStream(in);
+        BufferedImage bi;
         try {
-            this.src = src.getCanonicalFile().toString();
-            this.src9patchName = src.getCanonicalFile().getName().toString();
-            this.srcName = src.getCanonicalFile().getName().toString().replace(".9.png", "");
-        }catch (Exception e){
-            e.printStackTrace();
+            bi = decode(stream, null, 1, 1);
+        } finally {
+            stream.close();
         }
-        init();
+        BuildMetrics.stage(BuildMetrics.DECODE, start);
+        return parse(id, id, bi);
     }
 
-    private void init() {
+    /**
+     * Parse a 9-Patch png held in memory
+     * @param id patch id, btn
+     * @param png png data
+     * @return parsed patch
+     * @throws NinePatchException not a valid 9-Patch png
+     */
+    public static NinePatch read(String id, byte[] png) throws IOException {
+        return read(id, new ByteArrayInputStream(png));
+    }
 
-        // checking file name has .9.png
-        if (!src.substring(src.length() - 6).equalsIgnoreCase(".9.png")) {
-            System.err.println(src9patchName + " error NOT 9-Patch png file. <e.g. button.9.png>");
-            System.exit(0);
+    /**
+     * Check the 9-Patch rules and build the slice table.
+     * @param name file name or id, used in error messages
+     * @param id patch id
+     * @param bi decoded png, null if it could not be decoded
+     * @throws NinePatchException
+     */
+    private static NinePatch parse(String name, String id, BufferedImage bi) throws NinePatchException {
+
+        if (bi == null) {
+            throw new NinePatchException(NinePatchException.Reason.NOT_AN_IMAGE, name, "NOT png file.");
+        }
+        int w = bi.getWidth();
+        int h = bi.getHeight();
+        if (w < 3 || h < 3) {
+            throw new NinePatchException(NinePatchException.Reason.TOO_SMALL, name, "9-Patch, MUST be at least 3 x 3 px.");
         }
 
-        try {
-            BufferedImage bi = ImageIO.read(new File(src));
-            int w = bi.getWidth();
-            int h = bi.getHeight();
+        /**
+         * Only the 1px frame carries 9-Patch data, read the four edges instead of the whole image.
+         * getRGB returns default ARGB like PixelGrabber did, the rows are checked in the same order.
+         */
+        long start = System.nanoTime();
+        int[] topRow = bi.getRGB(0, 0, w, 1, null, 0, w);
+        int[] bottomRow = bi.getRGB(0, h - 1, w, 1, null, 0, w);
+        int[] leftColumn = bi.getRGB(0, 1, 1, h - 2, null, 0, 1);
+        int[] rightColumn = bi.getRGB(w - 1, 1, 1, h - 2, null, 0, 1);
+        BuildMetrics.stage(BuildMetrics.SCAN, start);
+
+        NinePatch np = new NinePatch(name, id, w, h, topRow, bottomRow, leftColumn, rightColumn, bi);
+        np.decodedBytes(bi);
+        return np;
+    }
 
-            int[] pixels = new int[w * h];
-            PixelGrabber pg = new PixelGrabber(bi, 0, 0, w, h, pixels, 0, w);
-            try {
-                pg.grabPixels();
-            } catch (InterruptedException e) {
-                System.err.println(src9patchName + " interrupted waiting for pixels!");
-                System.exit(0);
+    /**
+     *
+     * @param w image width
+     * @param h image height
+     * @param topRow default ARGB of row 0, w pixels
+     * @param bottomRow row h - 1, w pixels
+     * @param leftColumn column 0 without the corners, h - 2 pixels
+     * @param rightColumn column w - 1 without the corners, h - 2 pixels
+     * @param bi decoded png kept for slice(), null when slices are decoded from the file
+     */
+    private NinePatch(String name, String id, int w, int h, int[] topRow, int[] bottomRow, int[] leftColumn, int[] rightColumn, BufferedImage bi) throws NinePatchException {
+
+        this.name = name;
+        this.id = id;
+        long start = System.nanoTime();
+
+        /**
+         * bit set: Alpha=255, see EdgeAnalyzer
+         * [0,0,0,0,255,255,255,255,0,...] -> ...011110000
+         */
+        long[] topBits = EdgeAnalyzer.bits(w - 2);
+        long[] leftBits = EdgeAnalyzer.bits(h - 2);
+        long[] rightBits = EdgeAnalyzer.bits(h - 2);
+        long[] bottomBits = EdgeAnalyzer.bits(w - 2);
+
+        for (int i = 0; i < w; i++) {
+            checkEdgePixel(topRow[i], i == 0 || i == w - 1, i, 0);
+            if (i > 0 && i < w - 1 && topRow[i] >>> 24 == 255) {
+                EdgeAnalyzer.set(topBits, i - 1);
             }
-            if ((pg.getStatus() & ImageObserver.ABORT) != 0) {
-                System.err.println(src9patchName + " image fetch aborted or errored");
-                System.exit(0);
+        }
+        for (int j = 0; j < h - 2; j++) {
+            checkEdgePixel(leftColumn[j], false, 0, j + 1);
+            checkEdgePixel(rightColumn[j], false, w - 1, j + 1);
+            if (leftColumn[j] >>> 24 == 255) {
+                EdgeAnalyzer.set(leftBits, j);
             }
-            for (int j = 0; j < h; j++) {
-                for (int i = 0; i < w; i++) {
-                    // Set ARGB
-                    int alpha = (pixels[j * w + i] >> 24) & 0xff;
-                    int red = (pixels[j * w + i] >> 16) & 0xff;
-                    int green = (pixels[j * w + i] >> 8) & 0xff;
-                    int blue = (pixels[j * w + i]) & 0xff;
-
-                    // Check 9-Patch rule: edge ARGB
-                    if (j == 0 || j == h - 1 || i == 0 || i == w - 1) {
-                        if (alpha == 255) {
-                            if ((j == 0 && i == 0) || (j == 0 && i == w - 1) || (j == h - 1 && i == 0) || (j == h - 1 && i == w - 1)) {
-                                System.err.println(src9patchName + " error 9-Patch, 1px four corners must be alpha 0.");
-                                System.exit(0);
-                            }
-                            // Not black
-                            if (!(red == 0 && green == 0 && blue == 0)) {
-                                System.err.println(src9patchName + " error 9-Patch, When alpha is 255, MUST Black(255 255 255).");
-                                System.exit(0);
-                            }
-                        } else if (alpha > 0) {
-                            System.err.println(src9patchName + " error 9-Patch, edge 1px only allows alpha 0 or 255.");
-                            System.exit(0);
-                        }
-                    }
-
-                    /**
-                     * 255 alpha is COLOR black
-                     * create round 1px Array, get Black line position
-                     */
-                    if (j == 0 && i > 0 && i < w - 1) {
-                        topPixelList.add(alpha);
-                    }
-                    if (i == w - 1 && j > 0 && j < h - 1) {
-                        rightPixelList.add(alpha);
-                    }
-                    if (j == h - 1 && i > 0 && i < w - 1) {
-                        bottomPixelList.add(alpha);
-                    }
-                    if (i == 0 && j > 0 && j < h - 1) {
-                        leftPixelList.add(alpha);
-                    }
-
-                }
+            if (rightColumn[j] >>> 24 == 255) {
+                EdgeAnalyzer.set(rightBits, j);
+            }
+        }
+        for (int i = 0; i < w; i++) {
+            checkEdgePixel(bottomRow[i], i == 0 || i == w - 1, i, h - 1);
+            if (i > 0 && i < w - 1 && bottomRow[i] >>> 24 == 255) {
+                EdgeAnalyzer.set(bottomBits, i - 1);
             }
-            System.out.println(topPixelList);
-            System.out.println(leftPixelList);
-            System.out.println(rightPixelList);
-            System.out.println(bottomPixelList);
-
-
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(0);
         }
 
         // set propertyList
-        setPropertyList(topPixelList, topPropertyList);
-        setPropertyList(leftPixelList, leftPropertyList);
-        setPropertyList(rightPixelList, rightPropertyList);
-        setPropertyList(bottomPixelList, bottomPropertyList);
+        BuildMetrics.stage(BuildMetrics.SCAN, start);
+        start = System.nanoTime();
+        PatchDescriptor.EdgeRuns topPropertyList = EdgeAnalyzer.runs(topBits, w - 2);
+        PatchDescriptor.EdgeRuns leftPropertyList = EdgeAnalyzer.runs(leftBits, h - 2);
+        PatchDescriptor.EdgeRuns rightPropertyList = EdgeAnalyzer.runs(rightBits, h - 2);
+        PatchDescriptor.EdgeRuns bottomPropertyList = EdgeAnalyzer.runs(bottomBits, w - 2);
+        BuildMetrics.stage(BuildMetrics.RUNS, start);
+        start = System.nanoTime();
 
         // Check 9-Patch area
-        int tmpCheck = 0;
-        for (int i = 0; i < rightPropertyList.size(); i++) {
-            tmpCheck += rightPropertyList.get(i)[0];
-        }
-        if (tmpCheck != 1) {
-            System.err.println(src9patchName + " error 9-Patch, Right MUST has one black line");
-            System.exit(0);
-        }
-        tmpCheck = 0;
-        for (int i = 0; i < bottomPropertyList.size(); i++) {
-            tmpCheck += bottomPropertyList.get(i)[0];
-        }
-        if (tmpCheck != 1) {
-            System.err.println(src9patchName + " error 9-Patch, Bottom MUST has one black line");
-            System.exit(0);
-        }
-
-
-        String tmpScale = "";
-        for (int j = 0; j < leftPropertyList.size(); j++) {
-            for (int i = 0; i < topPropertyList.size(); i++) {
-                // init core data
-                if (j == 0 && i == 0) {
-                    ninePatchProperty.add(new int[]{getSliceType(topPropertyList.get(i)[0], leftPropertyList.get(j)[0]), j, i, 1, 1, topPropertyList.get(i)[2] + 1, leftPropertyList.get(j)[2] + 1, topPropertyList.get(i)[3] + 1, leftPropertyList.get(j)[3] + 1});
-                } else if (j == 0 && i > 0) {
-                    ninePatchProperty.add(new int[]{getSliceType(topPropertyList.get(i)[0], leftPropertyList.get(j)[0]), j, i, topPropertyList.get(i - 1)[1] + 2, 1, topPropertyList.get(i)[2] + 1, leftPropertyList.get(j)[2] + 1, topPropertyList.get(i)[3] + 1, leftPropertyList.get(j)[3] + 1});
-                } else if (i == 0 && j > 0) {
-                    ninePatchProperty.add(new int[]{getSliceType(topPropertyList.get(i)[0], leftPropertyList.get(j)[0]), j, i, 1, leftPropertyList.get(j - 1)[1] + 2, topPropertyList.get(i)[2] + 1, leftPropertyList.get(j)[2] + 1, topPropertyList.get(i)[3] + 1, leftPropertyList.get(j)[3] + 1});
-                } else {
-                    ninePatchProperty.add(new int[]{getSliceType(topPropertyList.get(i)[0], leftPropertyList.get(j)[0]), j, i, topPropertyList.get(i - 1)[1] + 2, leftPropertyList.get(j - 1)[1] + 2, topPropertyList.get(i)[2] + 1, leftPropertyList.get(j)[2] + 1, topPropertyList.get(i)[3] + 1, leftPropertyList.get(j)[3] + 1});
-                }
+        if (rightPropertyList.unfixedCount() != 1) {
+            throw new NinePatchException(NinePatchException.Reason.RIGHT_LINE, name, "9-Patch, Right MUST has one black line");
+        }
+        if (bottomPropertyList.unfixedCount() != 1) {
+            throw new NinePatchException(NinePatchException.Reason.BOTTOM_LINE, name, "9-Patch, Bottom MUST has one black line");
+        }
 
+        image = bi;
+        patch = new PatchDescriptor(w, h, topPropertyList, leftPropertyList, rightPropertyList, bottomPropertyList);
 
-                // repeat scale
-                if (ninePatchProperty.get(ninePatchProperty.size() - 1)[0] == SLICE_TYPE_FIXED) {
-                    // SLICE_TYPE_FIXED
-                    tmpScale = "";
-                } else {
-                    if (j == 0 && i == 0) {
-                        if (ninePatchProperty.get(ninePatchProperty.size() - 1)[7] > 0 && ninePatchProperty.get(ninePatchProperty.size() - 1)[8] > 0) {
-                            for (int w = 0; w < ninePatchProperty.get(ninePatchProperty.size() - 1)[7]; w++) {
-                                tmpScale += "<img class='f' />";
-                            }
-                            for (int h = 0; h < ninePatchProperty.get(ninePatchProperty.size() - 1)[8] - 1; h++) {
-                                tmpScale += "<img />";
-                            }
-                        } else if (ninePatchProperty.get(ninePatchProperty.size() - 1)[7] > 0) {
-                            for (int w = 0; w < ninePatchProperty.get(ninePatchProperty.size() - 1)[7]; w++) {
-                                tmpScale += "<img class='f' />";
-                            }
-                        } else if (ninePatchProperty.get(ninePatchProperty.size() - 1)[8] > 0) {
-                            for (int h = 0; h < ninePatchProperty.get(ninePatchProperty.size() - 1)[8]; h++) {
-                                tmpScale += "<img />";
-                            }
-                        }
-                    } else if (i > 0 && j == 0) {
-                        for (int w = 0; w < ninePatchProperty.get(ninePatchProperty.size() - 1)[7]; w++) {
-                            tmpScale += "<img class='f' />";
-                        }
-                    } else if (j > 0 && i == 0) {
-                        for (int h = 0; h < ninePatchProperty.get(ninePatchProperty.size() - 1)[8]; h++) {
-                            tmpScale += "<img />";
-                        }
-                    }
-                }
-                fillerTdTags.add(tmpScale);
-                // init tmpScale
-                tmpScale = "";
+        fillerTdTags = new String[patch.sliceCount()];
+        for (int n = 0; n < fillerTdTags.length; n++) {
+            fillerTdTags[n] = getFillerTdTag(n);
+        }
 
-            }
+        BuildMetrics.stage(BuildMetrics.SCAN, start);
+
+        // test log, only built with --verbose
+        if (Log.isDebug()) {
+            Log.debug(name + "\n" +
+                    "top    " + EdgeAnalyzer.toString(topBits, w - 2) + "\n" +
+                    "left   " + EdgeAnalyzer.toString(leftBits, h - 2) + "\n" +
+                    "right  " + EdgeAnalyzer.toString(rightBits, h - 2) + "\n" +
+                    "bottom " + EdgeAnalyzer.toString(bottomBits, w - 2) + "\n" +
+                    "top runs\n" + topPropertyList +
+                    "left runs\n" + leftPropertyList +
+                    "right runs\n" + rightPropertyList +
+                    "bottom runs\n" + bottomPropertyList +
+                    Arrays.toString(fillerTdTags) + "\n" +
+                    Arrays.toString(patch.slice(0)) + "\n" +
+                    patch.getContentArea());
         }
 
-        System.out.println(fillerTdTags);
-        System.out.println(Arrays.toString(ninePatchProperty.get(0)));
-
-        // set [padding-top, padding-bottom, ..., ...]
-        if (rightPropertyList.size() == 3) {
-            contentArea.add(0, rightPropertyList.get(0)[2] + 1);
-            contentArea.add(1, rightPropertyList.get(2)[2] + 1);
-        } else if (rightPropertyList.size() == 1) {
-            contentArea.add(0, 0);
-            contentArea.add(1, 0);
-        } else {
-            if (rightPropertyList.get(0)[0] == SLICE_TYPE_FIXED) {
-                contentArea.add(0, rightPropertyList.get(0)[2] + 1);
-                contentArea.add(1, 0);
-            } else {
-                contentArea.add(0, 0);
-                contentArea.add(1, rightPropertyList.get(1)[2] + 1);
-            }
+    }
+
+    /**
+     * repeat scale, filler imgs keep the stretch ratio of the first row / first column
+     * @param n slice index
+     * @return
+     */
+    private String getFillerTdTag(int n) {
+
+        int i = patch.sliceColumn(n);
+        int j = patch.sliceRow(n);
+        int scaleWidth = patch.sliceScaleWidth(n);
+        int scaleHeight = patch.sliceScaleHeight(n);
+        StringBuilder tmpScale = new StringBuilder();
+
+        if (patch.sliceType(n) == PatchDescriptor.SLICE_TYPE_FIXED) {
+            // SLICE_TYPE_FIXED
+            return "";
         }
-        // set [..., ..., padding-left, padding-right]
-        if (bottomPropertyList.size() == 3) {
-            contentArea.add(2, bottomPropertyList.get(0)[2] + 1);
-            contentArea.add(3, bottomPropertyList.get(2)[2] + 1);
-        } else if (bottomPropertyList.size() == 1) {
-            contentArea.add(2, 0);
-            contentArea.add(3, 0);
-        } else {
-            if (bottomPropertyList.get(0)[0] == SLICE_TYPE_FIXED) {
-                contentArea.add(2, bottomPropertyList.get(0)[2] + 1);
-                contentArea.add(3, 0);
-            } else {
-                contentArea.add(2, 0);
-                contentArea.add(3, bottomPropertyList.get(1)[2] + 1);
+        if (j == 0 && i == 0) {
+            if (scaleWidth > 0 && scaleHeight > 0) {
+                appendRepeat(tmpScale, "<img class='f' />", scaleWidth);
+                appendRepeat(tmpScale, "<img />", scaleHeight - 1);
+            } else if (scaleWidth > 0) {
+                appendRepeat(tmpScale, "<img class='f' />", scaleWidth);
+            } else if (scaleHeight > 0) {
+                appendRepeat(tmpScale, "<img />", scaleHeight);
             }
+        } else if (i > 0 && j == 0) {
+            appendRepeat(tmpScale, "<img class='f' />", scaleWidth);
+        } else if (j > 0 && i == 0) {
+            appendRepeat(tmpScale, "<img />", scaleHeight);
         }
-        System.out.println(contentArea.get(0) + " | " + contentArea.get(1) + "|" + contentArea.get(2) + " | " + contentArea.get(3));
-
+        return tmpScale.toString();
     }
 
-    private int getSliceType(int topSliceType, int leftSliceType) {
-        if (topSliceType == SLICE_TYPE_FIXED && leftSliceType == SLICE_TYPE_FIXED) {
-            return SLICE_TYPE_FIXED;
-        } else if (topSliceType == SLICE_TYPE_UNFIXED && leftSliceType == SLICE_TYPE_FIXED) {
-            return SLICE_TYPE_REPEAT_X;
-        } else if (topSliceType == SLICE_TYPE_FIXED && leftSliceType == SLICE_TYPE_UNFIXED) {
-            return SLICE_TYPE_REPEAT_Y;
-        } else {
-            return SLICE_TYPE_REPEAT;
+    private static void appendRepeat(StringBuilder sb, String tag, int count) {
+        for (int c = 0; c < count; c++) {
+            sb.append(tag);
         }
     }
 
+    /**
+     * Check 9-Patch rule: edge ARGB
+     * @param argb edge pixel
+     * @param corner one of the four corners
+     * @param x pixel column
+     * @param y pixel row
+     */
+    private void checkEdgePixel(int argb, boolean corner, int x, int y) throws NinePatchException {
+        // Set ARGB
+        int alpha = (argb >> 24) & 0xff;
+        int red = (argb >> 16) & 0xff;
+        int green = (argb >> 8) & 0xff;
+        int blue = (argb) & 0xff;
+
+        if (alpha == 255) {
+            if (corner) {
+                throw new NinePatchException(NinePatchException.Reason.CORNER, name, x, y, "9-Patch, 1px four corners must be alpha 0.");
+            }
+            // Not black
+            if (!(red == 0 && green == 0 && blue == 0)) {
+                throw new NinePatchException(NinePatchException.Reason.EDGE_NOT_BLACK, name, x, y, "9-Patch, When alpha is 255, MUST Black(255 255 255).");
+            }
+        } else if (alpha > 0) {
+            throw new NinePatchException(NinePatchException.Reason.EDGE_TRANSLUCENT, name, x, y, "9-Patch, edge 1px only allows alpha 0 or 255.");
+        }
+    }
 
-    private static void setPropertyList(ArrayList<Integer> pixelList, ArrayList<int[]> propertyList) {
+    /**
+     * Write every slice to targetDirectory/<id>_<index>.png
+     * @param targetDirectory slice images output directory
+     */
+    public void slice(String targetDirectory) {
+        slice(targetDirectory, null);
+    }
 
-        int tmp0 = 0;
-        int tmp255 = 0;
+    /**
+     *
+     * @param targetDirectory slice images output directory
+     * @param handler takes over slices instead of images/<id>_<index>.png, may be null
+     */
+    public void slice(String targetDirectory, SliceHandler handler) {
 
-        for (int i = 0; i < pixelList.size(); i++) {
-            if (pixelList.get(i) == 255) {
-                tmp255++;
-                if (tmp0 != 0) {
-                    // [SLICE_TYPE, Coordinate, Breadth]
-                    propertyList.add(new int[]{SLICE_TYPE_FIXED, i - 1, tmp0 - 1, -1});
-                    tmp0 = 0;
-                }
-            }
-            if (pixelList.get(i) == 0) {
-                tmp0++;
-                if (tmp255 != 0) {
-                    propertyList.add(new int[]{SLICE_TYPE_UNFIXED, i - 1, tmp255 - 1, -1});
-                    tmp255 = 0;
-                }
+        String imgDirectory = createDirectory(targetDirectory);
 
+        //cut start, every tile comes from the image decoded when parsing, or from its own region of the file
+        for (int i = 0; i < patch.sliceCount(); i++) {
+            BufferedImage slice = region(patch.sliceX(i), patch.sliceY(i), patch.sliceWidth(i), patch.sliceHeight(i));
+            BuildMetrics.slice();
+            if (handler != null && handler.handle(id, i, patch.sliceType(i), slice, imgDirectory)) {
+                continue;
             }
-            // Last number
-            if (i == pixelList.size() - 1 && tmp255 != 0) {
-                propertyList.add(new int[]{SLICE_TYPE_UNFIXED, i, tmp255 - 1, -1});
-            }
-            if (i == pixelList.size() - 1 && tmp0 != 0) {
-                propertyList.add(new int[]{SLICE_TYPE_FIXED, i, tmp0 - 1, -1});
-            }
+            UtilTools.write(slice, imgDirectory + System.getProperty("file.separator") + id + "_" + i + ".png");
         }
+    }
 
-        // get propertyList.get(i)[2] of min number
-        int min = 0;
-        int max = 0;
-        for (int i = 0; i < propertyList.size(); i++) {
-            if (propertyList.get(i)[0] == 1) {
-                min = propertyList.get(i)[2];
-                max = propertyList.get(i)[2];
-                break;
-            }
+    /**
+     * Hand every slice to the handler, nothing is written, imagesDirectory is null.
+     * @param handler receives the slices in slice table order
+     */
+    public void slice(SliceHandler handler) {
+        for (int i = 0; i < patch.sliceCount(); i++) {
+            BufferedImage slice = region(patch.sliceX(i), patch.sliceY(i), patch.sliceWidth(i), patch.sliceHeight(i));
+            BuildMetrics.slice();
+            handler.handle(id, i, patch.sliceType(i), slice, null);
         }
+    }
 
-        for (int i = 0; i < propertyList.size(); i++) {
-            if (propertyList.get(i)[0] == 1) {
-                if (propertyList.get(i)[2] > max) {
-                    max = propertyList.get(i)[2];
-                }
-                if (propertyList.get(i)[2] < min) {
-                    min = propertyList.get(i)[2];
-                }
-            }
+    /**
+     * The patch at density / sourceDensity of its size, e.g. the @1x and @2x patch of a @3x source.
+     *   Run boundaries are scaled and rounded, every run keeps at least 1px so the slice table has the same shape
+     *   at every density, the image inside the frame is resampled from the decoded image, see DensityVariants.
+     *   A patch from readRegions() is decoded as a whole here.
+     * @param density target density, 1 for @1x
+     * @param sourceDensity density this patch is drawn for
+     * @return a new patch with its own image, this one is not changed
+     * @throws NinePatchException an edge has more runs than pixels at the target size
+     */
+    public NinePatch scale(int density, int sourceDensity) throws NinePatchException {
+
+        int w = patch.getWidth() - 2;
+        int h = patch.getHeight() - 2;
+        int scaledWidth = Math.max(1, (int) Math.round(w * (double) density / sourceDensity));
+        int scaledHeight = Math.max(1, (int) Math.round(h * (double) density / sourceDensity));
+        int[] top = scaleEdge(patch.getTop(), w, scaledWidth, density);
+        int[] left = scaleEdge(patch.getLeft(), h, scaledHeight, density);
+        int[] right = scaleEdge(patch.getRight(), h, scaledHeight, density);
+        int[] bottom = scaleEdge(patch.getBottom(), w, scaledWidth, density);
+
+        long start = System.nanoTime();
+        BufferedImage bi = new BufferedImage(scaledWidth + 2, scaledHeight + 2, BufferedImage.TYPE_INT_ARGB);
+        bi.setRGB(1, 1, scaledWidth, scaledHeight,
+                DensityVariants.resample(region(1, 1, w, h), scaledWidth, scaledHeight), 0, scaledWidth);
+        for (int i = 0; i < scaledWidth; i++) {
+            bi.setRGB(i + 1, 0, top[i] << 24);
+            bi.setRGB(i + 1, scaledHeight + 1, bottom[i] << 24);
         }
-        min = min + 1;
-        System.out.println("Min: " + min);
-
-        // Set Breadth-scale
-        ArrayList<Integer> tmpSlimming255 = new ArrayList<Integer>();
-        for (int i = 0; i < propertyList.size(); i++) {
-            if (propertyList.get(i)[0] == 1) {
-                if ((propertyList.get(i)[2] + 1) % min == 0) {
-                    tmpSlimming255.add(((propertyList.get(i)[2] + 1) / min) - 1);
-                } else {
-                    tmpSlimming255.clear();
-                    break;
-                }
-            } else {
-                tmpSlimming255.add(-1);
-            }
+        for (int j = 0; j < scaledHeight; j++) {
+            bi.setRGB(0, j + 1, left[j] << 24);
+            bi.setRGB(scaledWidth + 1, j + 1, right[j] << 24);
         }
-        for (int i = 0; i < propertyList.size(); i++) {
-            if (!tmpSlimming255.isEmpty()) {
-                propertyList.get(i)[3] = tmpSlimming255.get(i);
-            } else {
-                if (propertyList.get(i)[0] == 1) {
-                    propertyList.get(i)[3] = propertyList.get(i)[2];
-                }
+        BuildMetrics.stage(BuildMetrics.SLICE, start);
+        return parse(name, id, bi);
+    }
+
+    /**
+     * @return edge alphas, 0 or 255, of length pixels
+     */
+    private int[] scaleEdge(PatchDescriptor.EdgeRuns runs, int sourceLength, int length, int density) throws NinePatchException {
+        int[] alphas = new int[length];
+        int start = 0;
+        for (int r = 0; r < runs.size(); r++) {
+            int end = r == runs.size() - 1 ? length : (int) Math.round((runs.coordinate(r) + 1) * (double) length / sourceLength);
+            end = Math.min(Math.max(end, start + 1), length - (runs.size() - 1 - r));
+            if (end <= start) {
+                throw new NinePatchException(NinePatchException.Reason.TOO_SMALL, name, "9-Patch, too small for @" + density + "x, " + runs.size() + " runs on " + length + " px.");
             }
+            Arrays.fill(alphas, start, end, runs.type(r) == PatchDescriptor.SLICE_TYPE_UNFIXED ? 255 : 0);
+            start = end;
         }
-        // test log
-        for (int i = 0; i < propertyList.size(); i++) {
-            System.out.println(propertyList.get(i)[0] + "," + propertyList.get(i)[1] + "," + propertyList.get(i)[2] + "," + propertyList.get(i)[3]);
-        }
+        return alphas;
+    }
+
+    /**
+     * One stretch run on the top and one on the left edge, a css border-image draws the same as the table.
+     * @return true if getBorderImageHTML() can be used
+     */
+    public boolean isBorderImage() {
+        return patch.getTop().unfixedCount() == 1 && patch.getLeft().unfixedCount() == 1;
     }
 
-    protected void slice(String targetDirectory) {
+    /**
+     * Write the image inside the 1px frame to targetDirectory/<id>.png, the source of the border-image
+     * @param targetDirectory slice images output directory
+     */
+    public void writeBorderImage(String targetDirectory) {
+        BufferedImage image = region(1, 1, patch.getWidth() - 2, patch.getHeight() - 2);
+        BuildMetrics.slice();
+        UtilTools.write(image,
+                createDirectory(targetDirectory) + System.getProperty("file.separator") + id + ".png");
+    }
 
+    private static String createDirectory(String targetDirectory) {
+        String imgDirectory = targetDirectory;
         try {
             File mPath = new File(targetDirectory);
             imgDirectory = mPath.getCanonicalFile().toString();
-            if (!mPath.isDirectory()) {
+            // an archive sink names its entries after the path, nothing is written to the directory
+            if (UtilTools.getSink() == SliceSink.DIRECTORY && !mPath.isDirectory()) {
                 mPath.mkdirs();
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
+        return imgDirectory;
+    }
+
+    /**
+     * One rectangle of the image, shares the raster of the decoded image, or decodes only that region of the file
+     */
+    private BufferedImage region(int x, int y, int width, int height) {
+        long start = System.nanoTime();
+        BufferedImage image = this.image;
+        if (image != null) {
+            BufferedImage region = image.getSubimage(x, y, width, height);
+            BuildMetrics.stage(BuildMetrics.SLICE, start);
+            return region;
+        }
+        File source = this.source;
+        if (source == null) {
+            throw new IllegalStateException(name + " already released");
+        }
+        try {
+            BufferedImage region = decode(source, name, new Rectangle(x, y, width, height), 1, 1);
+            decodedBytes(region);
+            BuildMetrics.stage(BuildMetrics.SLICE, start);
+            return region;
+        } catch (IOException e) {
+            throw new IllegalStateException(name + " can not be read again: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Decode a part of a png, only the pixels inside region on every xPeriod column / yPeriod row are kept
+     */
+    private static BufferedImage decode(File src, String name, Rectangle region, int xPeriod, int yPeriod) throws IOException {
+        ImageInputStream in = new FileImageInputStream(src);
+        try {
+            BufferedImage bi = decode(in, region, xPeriod, yPeriod);
+            if (bi == null) {
+                throw new NinePatchException(NinePatchException.Reason.NOT_AN_IMAGE, name, "NOT png file.");
+            }
+            return bi;
+        } finally {
+            in.close();
+        }
+    }
 
-        //cut start
-        for (int i = 0; i < ninePatchProperty.size(); i++) {
-            UtilTools.cut(src, imgDirectory + System.getProperty("file.separator") + srcName + "_" + i + ".png", ninePatchProperty.get(i)[3], ninePatchProperty.get(i)[4], ninePatchProperty.get(i)[5], ninePatchProperty.get(i)[6]);
+    /**
+     * Decode with the pooled png reader of this thread, see CodecPool
+     * @param region pixels to keep, null for the whole image
+     * @return null when in is not a png
+     */
+    private static BufferedImage decode(ImageInputStream in, Rectangle region, int xPeriod, int yPeriod) throws IOException {
+        ImageReader reader = CodecPool.reader(in);
+        if (reader == null) {
+            return null;
+        }
+        try {
+            ImageReadParam param = reader.getDefaultReadParam();
+            if (region != null) {
+                param.setSourceRegion(region);
+            }
+            param.setSourceSubsampling(xPeriod, yPeriod, 0, 0);
+            return reader.read(0, param);
+        } finally {
+            CodecPool.done(reader);
         }
     }
 
+    /**
+     * Width and height from the png header, no pixels are decoded
+     */
+    private static Rectangle decodeSize(File src, String name) throws IOException {
+        ImageInputStream in = new FileImageInputStream(src);
+        try {
+            ImageReader reader = CodecPool.reader(in);
+            if (reader == null) {
+                throw new NinePatchException(NinePatchException.Reason.NOT_AN_IMAGE, name, "NOT png file.");
+            }
+            try {
+                return new Rectangle(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                CodecPool.done(reader);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private synchronized void decodedBytes(BufferedImage bi) {
+        DataBuffer buffer = bi.getRaster().getDataBuffer();
+        long bytes = (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+        if (bytes > peakDecodedBytes) {
+            peakDecodedBytes = bytes;
+        }
+    }
+
+    /**
+     * @return bytes of the largest pixel buffer decoded so far, the whole image for read(),
+     *   the largest slice or frame pass for readRegions()
+     */
+    public synchronized long getPeakDecodedBytes() {
+        return peakDecodedBytes;
+    }
+
     /**
      *
      * @param idName
      * @return
      */
-    protected String getHTML(String idName) {
+    public String getHTML(String idName) {
+        return getHTML(idName, SliceReference.FILES);
+    }
 
-        // get padding
-        int paddingTop = contentArea.get(0);
-        int paddingBottom = contentArea.get(1);
-        int paddingLeft = contentArea.get(2);
-        int paddingRight = contentArea.get(3);
-
-        String bg = "";
-        int br = ninePatchProperty.get(ninePatchProperty.size() - 1)[2] + 1;
-        String tmpScale = "";
-        String tmpWidth = "";
-        String tmpHeight = "";
-        for (int i = 0; i < ninePatchProperty.size(); i++) {
+    /**
+     *
+     * @param idName
+     * @param reference background of every slice td
+     * @return
+     */
+    public String getHTML(String idName, SliceReference reference) {
+        return getHTML(idName, reference, false);
+    }
+
+    /**
+     *
+     * @param idName
+     * @param reference background of every slice td
+     * @param minify no line breaks and indentation, see writeHTML
+     * @return
+     */
+    public String getHTML(String idName, SliceReference reference, boolean minify) {
+        StringBuilder html = new StringBuilder(256 + patch.sliceCount() * 128);
+        try {
+            writeHTML(idName, reference, minify, html);
+        } catch (IOException e) {
+            // a StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        return html.toString();
+    }
+
+    /**
+     * Write the markup straight to out, no part of it is built as a string first.
+     * @param idName
+     * @param reference background of every slice td
+     * @param minify leave out the \r\n and tabs that only indent the markup, html9patch.js drops the line breaks anyway
+     * @param out receives the markup
+     */
+    public void writeHTML(String idName, SliceReference reference, boolean minify, Appendable out) throws IOException {
+
+        String indent2 = minify ? "" : "\t\t";
+        String indent3 = minify ? "" : "\t\t\t";
+        String newLine = minify ? "" : "\r\n";
+        int br = patch.columns();
+
+        writeFrameStart(idName, minify, out);
+        out.append(minify ? "" : "\t").append("<table id='").append(idName).append("_table' cellpadding='0' cellspacing='0'>").append(newLine);
+        for (int i = 0; i < patch.sliceCount(); i++) {
             // start tr
             if (i == 0) {
-                bg += "\t\t<tr>\r\n";
+                out.append(indent2).append("<tr>").append(newLine);
             }
 
-            // first Row
-            if (ninePatchProperty.get(i)[1] == 0) {
-                // set width
-                tmpWidth = " width='" + ninePatchProperty.get(i)[5] + "px'";
-                // set scale imgs
-                tmpScale = fillerTdTags.get(i);
-            }
-            // first Column
-            if (ninePatchProperty.get(i)[2] == 0) {
-                // set height
-                tmpHeight = " height='" + ninePatchProperty.get(i)[6] + "px'";
-                // set scaleText
-                tmpScale = fillerTdTags.get(i);
-            }
+            // first Row sets width, first Column sets height, both carry the scale imgs
+            boolean firstRow = patch.sliceRow(i) == 0;
+            boolean firstColumn = patch.sliceColumn(i) == 0;
+            int type = patch.sliceType(i);
 
             // create td & img
-            if (ninePatchProperty.get(i)[0] == SLICE_TYPE_FIXED) {
-                bg += "\t\t\t<td" + tmpWidth + tmpHeight + " style='background-image:url(\" + imageDirectory + \"" + srcName + "_" + i + ".png);'></td>\r\n";
-            } else if (ninePatchProperty.get(i)[0] == SLICE_TYPE_REPEAT) {
-                bg += "\t\t\t<td style='background-image:url(\" + imageDirectory + \"" + srcName + "_" + i + ".png);'>" + tmpScale + "</td>\r\n";
-            } else if (ninePatchProperty.get(i)[0] == SLICE_TYPE_REPEAT_X) {
-                bg += "\t\t\t<td" + tmpHeight + " style='background-image:url(\" + imageDirectory + \"" + srcName + "_" + i + ".png);'>" + tmpScale + "</td>\r\n";
-            } else if (ninePatchProperty.get(i)[0] == SLICE_TYPE_REPEAT_Y) {
-                bg += "\t\t\t<td" + tmpWidth + " style='background-image:url(\" + imageDirectory + \"" + srcName + "_" + i + ".png);'>" + tmpScale + "</td>\r\n";
+            out.append(indent3).append("<td");
+            if (firstRow && (type == PatchDescriptor.SLICE_TYPE_FIXED || type == PatchDescriptor.SLICE_TYPE_REPEAT_Y)) {
+                out.append(" width='").append(String.valueOf(patch.sliceWidth(i))).append("px'");
             }
-
-            // clear
-            tmpScale = "";
-            tmpWidth = "";
-            tmpHeight = "";
+            if (firstColumn && (type == PatchDescriptor.SLICE_TYPE_FIXED || type == PatchDescriptor.SLICE_TYPE_REPEAT_X)) {
+                out.append(" height='").append(String.valueOf(patch.sliceHeight(i))).append("px'");
+            }
+            out.append(" style='").append(reference.background(id, i)).append("'>");
+            if (type != PatchDescriptor.SLICE_TYPE_FIXED && (firstRow || firstColumn)) {
+                out.append(fillerTdTags[i]);
+            }
+            out.append("</td>").append(newLine);
 
             // end tr
             if ((i + 1) % br == 0 && i != 0) {
-                bg += "\t\t</tr>\r\n";
+                out.append(indent2).append("</tr>").append(newLine);
                 //start tr
-                if (i != ninePatchProperty.size() - 1) {
-                    bg += "\t\t<tr>\r\n";
+                if (i != patch.sliceCount() - 1) {
+                    out.append(indent2).append("<tr>").append(newLine);
                 }
             }
         }
+        out.append(minify ? "" : "\t").append("</table>").append(newLine);
+        writeFrameEnd(minify, out);
+    }
 
-        String html = "<div id='" + idName + "' class='nine-patch'>" + "\r\n" +
-                "\t<div id='" + idName + "_content' style='top:" + paddingTop + "px; bottom:" + paddingBottom + "px; left:" + paddingLeft + "px; right:" + paddingRight + "px;'>" + "\r\n" +
-                "\t\tEntry Content" + "\r\n" +
-                "\t</div>\r\n" + "\r\n" +
-                "\t<table id='" + idName + "_table' cellpadding='0' cellspacing='0'>" + "\r\n" +
-                bg +
-                "\t</table>" + "\r\n" +
-                "</div>\r\n";
+    /**
+     * One div with a css border-image over images/<id>.png instead of the table and its filler imgs,
+     * only for isBorderImage() patches. The div keeps the <id>_table id so states switch the same way.
+     * @param idName
+     * @return
+     */
+    public String getBorderImageHTML(String idName) {
+        return getBorderImageHTML(idName, false);
+    }
 
-        return html;
+    /**
+     *
+     * @param idName
+     * @param minify no line breaks and indentation
+     * @return
+     */
+    public String getBorderImageHTML(String idName, boolean minify) {
+        StringBuilder html = new StringBuilder(512);
+        try {
+            writeBorderImageHTML(idName, minify, html);
+        } catch (IOException e) {
+            // a StringBuilder does not throw
+            throw new IllegalStateException(e);
+        }
+        return html.toString();
+    }
 
+    /**
+     * getBorderImageHTML() written straight to out
+     */
+    public void writeBorderImageHTML(String idName, boolean minify, Appendable out) throws IOException {
+
+        // border widths in css order, top right bottom left, the fixed runs around the stretch runs
+        int[] border = new int[4];
+        PatchDescriptor.EdgeRuns top = patch.getTop();
+        for (int r = 0; r < top.size(); r++) {
+            if (top.type(r) == PatchDescriptor.SLICE_TYPE_UNFIXED) {
+                border[3] = top.coordinate(r) - top.breadth(r);
+                border[1] = patch.getWidth() - 3 - top.coordinate(r);
+            }
+        }
+        PatchDescriptor.EdgeRuns left = patch.getLeft();
+        for (int r = 0; r < left.size(); r++) {
+            if (left.type(r) == PatchDescriptor.SLICE_TYPE_UNFIXED) {
+                border[0] = left.coordinate(r) - left.breadth(r);
+                border[2] = patch.getHeight() - 3 - left.coordinate(r);
+            }
+        }
+        String slice = border[0] + " " + border[1] + " " + border[2] + " " + border[3];
+        String url = "url(\" + imageDirectory + \"" + id + ".png)";
+        String separator = minify ? ";" : "; ";
+
+        writeFrameStart(idName, minify, out);
+        out.append(minify ? "" : "\t").append("<div id='").append(idName).append("_table' class='nine-patch-border' style='")
+                .append("border-width:").append(String.valueOf(border[0])).append("px ").append(String.valueOf(border[1])).append("px ")
+                .append(String.valueOf(border[2])).append("px ").append(String.valueOf(border[3])).append("px").append(separator)
+                .append("-webkit-border-image:").append(url).append(' ').append(slice).append(" stretch").append(separator)
+                .append("border-image:").append(url).append(' ').append(slice).append(" fill stretch;'></div>")
+                .append(minify ? "" : "\r\n");
+        writeFrameEnd(minify, out);
     }
 
-    protected void clear(){
+    /**
+     * Outer div and content div before the table or border-image div
+     */
+    private void writeFrameStart(String idName, boolean minify, Appendable out) throws IOException {
 
-        ninePatchProperty.clear();
-        fillerTdTags.clear();
-        contentArea.clear();
+        // get padding
+        PatchDescriptor.ContentArea padding = patch.getContentArea();
+        String separator = minify ? ";" : "; ";
+
+        out.append("<div id='").append(idName).append("' class='nine-patch'>").append(minify ? "" : "\r\n")
+                .append(minify ? "" : "\t").append("<div id='").append(idName).append("_content' style='")
+                .append("top:").append(String.valueOf(padding.getPaddingTop())).append("px").append(separator)
+                .append("bottom:").append(String.valueOf(padding.getPaddingBottom())).append("px").append(separator)
+                .append("left:").append(String.valueOf(padding.getPaddingLeft())).append("px").append(separator)
+                .append("right:").append(String.valueOf(padding.getPaddingRight())).append("px;'>")
+                .append(minify ? "Entry Content</div>" : "\r\n\t\tEntry Content\r\n\t</div>\r\n\r\n");
+    }
+
+    private static void writeFrameEnd(boolean minify, Appendable out) throws IOException {
+        out.append(minify ? "</div>" : "</div>\r\n");
+    }
 
-        topPixelList.clear();
-        leftPixelList.clear();
-        rightPixelList.clear();
-        bottomPixelList.clear();
+    /**
+     * Drop the decoded image once slicing is done, getHTML() keeps working, slice() does not.
+     */
+    public void release() {
+        image = null;
+        source = null;
+    }
 
-        topPropertyList.clear();
-        leftPropertyList.clear();
-        rightPropertyList.clear();
-        bottomPropertyList.clear();
+    /**
+     * @return btn for btn.9.png, background() and slice file names use it
+     */
+    public String getId() {
+        return id;
+    }
 
+    /**
+     * @return parsed edges, slice table and content area
+     */
+    public PatchDescriptor getPatch() {
+        return patch;
     }
 }
@@ -0,0 +1,80 @@
+package com.xiaer;
+
+import java.io.IOException;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * A file that is not a valid 9-Patch png.
+ *   getReason() tells which rule failed, getX() / getY() the offending pixel when there is one.
+ *   An IOException like javax.imageio.IIOException, batch workers report it and go on with the next file.
+ */
+public class NinePatchException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        /** file name does not end with .9.png */
+        FILE_NAME,
+        /** not a decodable image */
+        NOT_AN_IMAGE,
+        /** smaller than 3 x 3, no room for the 1px frame */
+        TOO_SMALL,
+        /** one of the four corners of the frame is not alpha 0 */
+        CORNER,
+        /** opaque edge pixel that is not black */
+        EDGE_NOT_BLACK,
+        /** edge pixel with alpha other than 0 or 255 */
+        EDGE_TRANSLUCENT,
+        /** right edge without exactly one black line */
+        RIGHT_LINE,
+        /** bottom edge without exactly one black line */
+        BOTTOM_LINE
+    }
+
+    private final Reason reason;
+    private final String name;
+    private final int x;
+    private final int y;
+
+    /**
+     *
+     * @param reason failed rule
+     * @param name file name or patch id
+     * @param message
+     */
+    public NinePatchException(Reason reason, String name, String message) {
+        this(reason, name, -1, -1, message);
+    }
+
+    /**
+     *
+     * @param x pixel column in the 9-Patch png, -1 if not about one pixel
+     * @param y pixel row in the 9-Patch png, -1 if not about one pixel
+     */
+    public NinePatchException(Reason reason, String name, int x, int y, String message) {
+        super(name + " error " + message);
+        this.reason = reason;
+        this.name = name;
+        this.x = x;
+        this.y = y;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+}
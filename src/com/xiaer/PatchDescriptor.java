@@ -0,0 +1,292 @@
+package com.xiaer;
+
+import java.util.Arrays;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Immutable 9-Patch analysis result.
+ *   Edge runs and the slice table are packed int arrays, nothing is boxed,
+ *   and an instance can be shared between threads once it is built.
+ */
+public final class PatchDescriptor {
+
+    public static final int SLICE_TYPE_FIXED = 0;
+    public static final int SLICE_TYPE_UNFIXED = 1;
+    public static final int SLICE_TYPE_REPEAT = 2;
+    public static final int SLICE_TYPE_REPEAT_X = 3;
+    public static final int SLICE_TYPE_REPEAT_Y = 4;
+
+    /**
+     * Slice table, SLICE_STRIDE ints per slice
+     *    [SLICE_TYPE, row, column, x, y, width, height, scaleWidth, scaleHeight, ...]
+     */
+    private static final int SLICE_STRIDE = 9;
+
+    private final int width;
+    private final int height;
+    private final EdgeRuns top;
+    private final EdgeRuns left;
+    private final EdgeRuns right;
+    private final EdgeRuns bottom;
+    private final int[] slices;
+    private final ContentArea contentArea;
+
+    /**
+     *
+     * @param width source image width, 1px border included
+     * @param height source image height, 1px border included
+     * @param top top edge runs (stretch columns)
+     * @param left left edge runs (stretch rows)
+     * @param right right edge runs (content rows)
+     * @param bottom bottom edge runs (content columns)
+     */
+    public PatchDescriptor(int width, int height, EdgeRuns top, EdgeRuns left, EdgeRuns right, EdgeRuns bottom) {
+        this.width = width;
+        this.height = height;
+        this.top = top;
+        this.left = left;
+        this.right = right;
+        this.bottom = bottom;
+
+        int columns = top.size();
+        int rows = left.size();
+        int[] table = new int[columns * rows * SLICE_STRIDE];
+        int p = 0;
+        for (int j = 0; j < rows; j++) {
+            for (int i = 0; i < columns; i++) {
+                table[p] = getSliceType(top.type(i), left.type(j));
+                table[p + 1] = j;
+                table[p + 2] = i;
+                table[p + 3] = i == 0 ? 1 : top.coordinate(i - 1) + 2;
+                table[p + 4] = j == 0 ? 1 : left.coordinate(j - 1) + 2;
+                table[p + 5] = top.breadth(i) + 1;
+                table[p + 6] = left.breadth(j) + 1;
+                table[p + 7] = top.scale(i) + 1;
+                table[p + 8] = left.scale(j) + 1;
+                p += SLICE_STRIDE;
+            }
+        }
+        this.slices = table;
+
+        // [padding-top, padding-bottom] from the right line, [padding-left, padding-right] from the bottom line
+        int[] vertical = getPadding(right);
+        int[] horizontal = getPadding(bottom);
+        this.contentArea = new ContentArea(vertical[0], vertical[1], horizontal[0], horizontal[1]);
+    }
+
+    private static int getSliceType(int topSliceType, int leftSliceType) {
+        if (topSliceType == SLICE_TYPE_FIXED && leftSliceType == SLICE_TYPE_FIXED) {
+            return SLICE_TYPE_FIXED;
+        } else if (topSliceType == SLICE_TYPE_UNFIXED && leftSliceType == SLICE_TYPE_FIXED) {
+            return SLICE_TYPE_REPEAT_X;
+        } else if (topSliceType == SLICE_TYPE_FIXED && leftSliceType == SLICE_TYPE_UNFIXED) {
+            return SLICE_TYPE_REPEAT_Y;
+        } else {
+            return SLICE_TYPE_REPEAT;
+        }
+    }
+
+    private static int[] getPadding(EdgeRuns runs) {
+        if (runs.size() == 3) {
+            return new int[]{runs.breadth(0) + 1, runs.breadth(2) + 1};
+        } else if (runs.size() == 1) {
+            return new int[]{0, 0};
+        } else if (runs.type(0) == SLICE_TYPE_FIXED) {
+            return new int[]{runs.breadth(0) + 1, 0};
+        } else {
+            return new int[]{0, runs.breadth(1) + 1};
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public EdgeRuns getTop() {
+        return top;
+    }
+
+    public EdgeRuns getLeft() {
+        return left;
+    }
+
+    public EdgeRuns getRight() {
+        return right;
+    }
+
+    public EdgeRuns getBottom() {
+        return bottom;
+    }
+
+    public ContentArea getContentArea() {
+        return contentArea;
+    }
+
+    public int columns() {
+        return top.size();
+    }
+
+    public int rows() {
+        return left.size();
+    }
+
+    public int sliceCount() {
+        return slices.length / SLICE_STRIDE;
+    }
+
+    public int sliceType(int i) {
+        return slices[i * SLICE_STRIDE];
+    }
+
+    public int sliceRow(int i) {
+        return slices[i * SLICE_STRIDE + 1];
+    }
+
+    public int sliceColumn(int i) {
+        return slices[i * SLICE_STRIDE + 2];
+    }
+
+    public int sliceX(int i) {
+        return slices[i * SLICE_STRIDE + 3];
+    }
+
+    public int sliceY(int i) {
+        return slices[i * SLICE_STRIDE + 4];
+    }
+
+    public int sliceWidth(int i) {
+        return slices[i * SLICE_STRIDE + 5];
+    }
+
+    public int sliceHeight(int i) {
+        return slices[i * SLICE_STRIDE + 6];
+    }
+
+    public int sliceScaleWidth(int i) {
+        return slices[i * SLICE_STRIDE + 7];
+    }
+
+    public int sliceScaleHeight(int i) {
+        return slices[i * SLICE_STRIDE + 8];
+    }
+
+    /**
+     *
+     * @param i slice index
+     * @return [SLICE_TYPE, row, column, x, y, width, height, scaleWidth, scaleHeight]
+     */
+    public int[] slice(int i) {
+        return Arrays.copyOfRange(slices, i * SLICE_STRIDE, (i + 1) * SLICE_STRIDE);
+    }
+
+    /**
+     * Runs of one 1px edge, RUN_STRIDE ints per run
+     *    [SLICE_TYPE, Coordinate, Breadth, Breadth-scale, ...]
+     *   Coordinate is the last pixel of the run, Breadth is run length - 1.
+     */
+    public static final class EdgeRuns {
+
+        private static final int RUN_STRIDE = 4;
+
+        private final int[] runs;
+
+        /**
+         *
+         * @param runs packed runs, copied
+         */
+        public EdgeRuns(int[] runs) {
+            this(runs, runs.length / RUN_STRIDE);
+        }
+
+        EdgeRuns(int[] runs, int size) {
+            this.runs = Arrays.copyOf(runs, size * RUN_STRIDE);
+        }
+
+        public int size() {
+            return runs.length / RUN_STRIDE;
+        }
+
+        public int type(int i) {
+            return runs[i * RUN_STRIDE];
+        }
+
+        public int coordinate(int i) {
+            return runs[i * RUN_STRIDE + 1];
+        }
+
+        public int breadth(int i) {
+            return runs[i * RUN_STRIDE + 2];
+        }
+
+        public int scale(int i) {
+            return runs[i * RUN_STRIDE + 3];
+        }
+
+        /**
+         * @return the number of stretchable (black) runs
+         */
+        public int unfixedCount() {
+            int count = 0;
+            for (int i = 0; i < size(); i++) {
+                count += type(i);
+            }
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < size(); i++) {
+                sb.append(type(i)).append(',').append(coordinate(i)).append(',').append(breadth(i)).append(',').append(scale(i)).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * div input area
+     * [padding-top, padding-bottom, padding-left, padding-right]
+     */
+    public static final class ContentArea {
+
+        private final int paddingTop;
+        private final int paddingBottom;
+        private final int paddingLeft;
+        private final int paddingRight;
+
+        public ContentArea(int paddingTop, int paddingBottom, int paddingLeft, int paddingRight) {
+            this.paddingTop = paddingTop;
+            this.paddingBottom = paddingBottom;
+            this.paddingLeft = paddingLeft;
+            this.paddingRight = paddingRight;
+        }
+
+        public int getPaddingTop() {
+            return paddingTop;
+        }
+
+        public int getPaddingBottom() {
+            return paddingBottom;
+        }
+
+        public int getPaddingLeft() {
+            return paddingLeft;
+        }
+
+        public int getPaddingRight() {
+            return paddingRight;
+        }
+
+        @Override
+        public String toString() {
+            return paddingTop + " | " + paddingBottom + "|" + paddingLeft + " | " + paddingRight;
+        }
+    }
+}
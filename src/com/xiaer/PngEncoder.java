@@ -0,0 +1,422 @@
+package com.xiaer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * PNG encoder for slices.
+ *   Picks the smallest lossless color type for every image:
+ *     <= 16 colors       palette, 1 / 2 / 4 bit
+ *     gray and opaque    grayscale 8 bit
+ *     <= 256 colors      palette 8 bit, tRNS for alpha
+ *     gray               grayscale + alpha
+ *     opaque             RGB
+ *     else               RGBA
+ *   A palette image is also deflated as its true color type, the smaller one is written.
+ *   Fully transparent pixels are written as transparent black.
+ *   The Deflater and all row / pixel buffers are reused between images,
+ *   an encoder is not thread safe, keep one per thread.
+ */
+public class PngEncoder {
+
+    public static final int DEFAULT_LEVEL = 6;
+
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+
+    private static final int COLOR_GRAY = 0;
+    private static final int COLOR_RGB = 2;
+    private static final int COLOR_PALETTE = 3;
+    private static final int COLOR_GRAY_ALPHA = 4;
+    private static final int COLOR_RGBA = 6;
+
+    private static final int MAX_PALETTE = 256;
+    private static final int TABLE_SIZE = 1024;
+
+    private final int level;
+    private final boolean reduce;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final Buffer idat = new Buffer();
+    private final Buffer idatTrueColor = new Buffer();
+    private final byte[] deflateBuffer = new byte[8192];
+    private final byte[] filterType = new byte[1];
+
+    // color table, open addressing, argb -> palette index
+    private final int[] tableColors = new int[TABLE_SIZE];
+    private final int[] tableIndex = new int[TABLE_SIZE];
+    private final int[] palette = new int[MAX_PALETTE];
+    private int paletteSize;
+
+    private int[] pixels = new int[0];
+    private byte[] previousRow = new byte[0];
+    private byte[] currentRow = new byte[0];
+    private byte[][] filteredRows = new byte[5][0];
+
+    /**
+     *
+     * @param level deflate level 0-9, 0/1 fastest, 9 smallest; adaptive row filters are used above 1
+     * @param reduce pick the smallest color type, false always writes RGBA
+     * @throws IllegalArgumentException level is not 0-9
+     */
+    public PngEncoder(int level, boolean reduce) {
+        checkLevel(level);
+        this.level = level;
+        this.reduce = reduce;
+        this.deflater = new Deflater(this.level);
+    }
+
+    /**
+     * @throws IllegalArgumentException level is not a deflate level 0-9
+     */
+    static void checkLevel(int level) {
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("png level " + level + " is not 0-9");
+        }
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isReduce() {
+        return reduce;
+    }
+
+    /**
+     * Encode the image, the stream is not closed.
+     */
+    public void write(BufferedImage image, OutputStream out) throws IOException {
+
+        int w = image.getWidth();
+        int h = image.getHeight();
+        if (pixels.length < w * h) {
+            pixels = new int[w * h];
+        }
+        UtilTools.getARGB(image, 0, 0, w, h, pixels);
+
+        // analyse
+        boolean opaque = true;
+        boolean gray = true;
+        boolean fitsPalette = reduce;
+        Arrays.fill(tableIndex, -1);
+        paletteSize = 0;
+        for (int i = 0; i < w * h; i++) {
+            int argb = pixels[i];
+            int alpha = argb >>> 24;
+            if (alpha == 0) {
+                argb = 0;
+                pixels[i] = 0;
+            }
+            if (alpha != 255) {
+                opaque = false;
+            }
+            if (gray && (((argb >> 16) & 0xff) != (argb & 0xff) || ((argb >> 8) & 0xff) != (argb & 0xff))) {
+                gray = false;
+            }
+            if (fitsPalette && indexOf(argb) == -1) {
+                if (paletteSize == MAX_PALETTE) {
+                    fitsPalette = false;
+                } else {
+                    addColor(argb);
+                }
+            }
+        }
+
+        int trueColorType = !reduce ? COLOR_RGBA : gray && opaque ? COLOR_GRAY : gray ? COLOR_GRAY_ALPHA : opaque ? COLOR_RGB : COLOR_RGBA;
+        int colorType = trueColorType;
+        int bitDepth = 8;
+        Buffer data = idat;
+        if (fitsPalette && (paletteSize <= 16 || trueColorType != COLOR_GRAY)) {
+            sortPalette();
+            colorType = COLOR_PALETTE;
+            bitDepth = paletteSize <= 2 ? 1 : paletteSize <= 4 ? 2 : paletteSize <= 16 ? 4 : 8;
+            deflateImage(w, h, colorType, bitDepth, idat);
+            // PLTE / tRNS can cost more than they save on small slices, keep the smaller one
+            int paletteBytes = paletteSize * 3 + 12 + (transparentCount() > 0 ? transparentCount() + 12 : 0);
+            deflateImage(w, h, trueColorType, 8, idatTrueColor);
+            if (idatTrueColor.size() < idat.size() + paletteBytes) {
+                colorType = trueColorType;
+                bitDepth = 8;
+                data = idatTrueColor;
+            }
+        } else {
+            deflateImage(w, h, colorType, bitDepth, idat);
+        }
+
+        // chunks
+        out.write(SIGNATURE);
+        byte[] ihdr = new byte[13];
+        putInt(ihdr, 0, w);
+        putInt(ihdr, 4, h);
+        ihdr[8] = (byte) bitDepth;
+        ihdr[9] = (byte) colorType;
+        writeChunk(out, "IHDR", ihdr, ihdr.length);
+        if (colorType == COLOR_PALETTE) {
+            byte[] plte = new byte[paletteSize * 3];
+            int transparent = transparentCount();
+            for (int i = 0; i < paletteSize; i++) {
+                plte[i * 3] = (byte) (palette[i] >> 16);
+                plte[i * 3 + 1] = (byte) (palette[i] >> 8);
+                plte[i * 3 + 2] = (byte) palette[i];
+            }
+            writeChunk(out, "PLTE", plte, plte.length);
+            if (transparent > 0) {
+                byte[] trns = new byte[transparent];
+                for (int i = 0; i < transparent; i++) {
+                    trns[i] = (byte) (palette[i] >>> 24);
+                }
+                writeChunk(out, "tRNS", trns, trns.length);
+            }
+        }
+        writeChunk(out, "IDAT", data.array(), data.size());
+        writeChunk(out, "IEND", new byte[0], 0);
+    }
+
+    /**
+     * Filter and deflate all rows into target.
+     */
+    private void deflateImage(int w, int h, int colorType, int bitDepth, Buffer target) {
+
+        int channels = colorType == COLOR_GRAY ? 1 : colorType == COLOR_GRAY_ALPHA ? 2 : colorType == COLOR_RGB ? 3 : colorType == COLOR_RGBA ? 4 : 1;
+        int bpp = colorType == COLOR_PALETTE ? 1 : channels;
+        int rowBytes = colorType == COLOR_PALETTE ? (w * bitDepth + 7) / 8 : w * channels;
+        ensureRowBuffers(rowBytes);
+        Arrays.fill(previousRow, 0, rowBytes, (byte) 0);
+        boolean adaptive = colorType != COLOR_PALETTE && level > 1;
+
+        target.reset();
+        deflater.reset();
+        deflater.setLevel(level);
+        for (int y = 0; y < h; y++) {
+            packRow(y * w, w, colorType, bitDepth, currentRow);
+            int filter = adaptive ? filterRow(rowBytes, bpp) : 0;
+            byte[] row = filter == 0 ? currentRow : filteredRows[filter];
+            filterType[0] = (byte) filter;
+            deflate(filterType, 1, target);
+            deflate(row, rowBytes, target);
+            byte[] tmp = previousRow;
+            previousRow = currentRow;
+            currentRow = tmp;
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(deflateBuffer);
+            target.write(deflateBuffer, 0, n);
+        }
+    }
+
+    /**
+     * @return tRNS length, translucent entries are sorted first
+     */
+    private int transparentCount() {
+        int transparent = 0;
+        while (transparent < paletteSize && (palette[transparent] >>> 24) != 255) {
+            transparent++;
+        }
+        return transparent;
+    }
+
+    /**
+     * Release the native deflater.
+     */
+    public void end() {
+        deflater.end();
+    }
+
+    private int indexOf(int argb) {
+        int slot = (argb * 0x9E3779B9) >>> 22;
+        while (tableIndex[slot] != -1) {
+            if (tableColors[slot] == argb) {
+                return tableIndex[slot];
+            }
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        return -1;
+    }
+
+    private void addColor(int argb) {
+        int slot = (argb * 0x9E3779B9) >>> 22;
+        while (tableIndex[slot] != -1) {
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        }
+        tableColors[slot] = argb;
+        tableIndex[slot] = paletteSize;
+        palette[paletteSize++] = argb;
+    }
+
+    /**
+     * Translucent entries first so tRNS stays short, then rebuild the index table.
+     */
+    private void sortPalette() {
+        int[] sorted = new int[paletteSize];
+        int n = 0;
+        for (int i = 0; i < paletteSize; i++) {
+            if ((palette[i] >>> 24) != 255) {
+                sorted[n++] = palette[i];
+            }
+        }
+        for (int i = 0; i < paletteSize; i++) {
+            if ((palette[i] >>> 24) == 255) {
+                sorted[n++] = palette[i];
+            }
+        }
+        int size = paletteSize;
+        Arrays.fill(tableIndex, -1);
+        paletteSize = 0;
+        for (int i = 0; i < size; i++) {
+            addColor(sorted[i]);
+        }
+    }
+
+    private void packRow(int offset, int w, int colorType, int bitDepth, byte[] row) {
+        int p = 0;
+        if (colorType == COLOR_PALETTE) {
+            if (bitDepth == 8) {
+                for (int x = 0; x < w; x++) {
+                    row[p++] = (byte) indexOf(pixels[offset + x]);
+                }
+            } else {
+                int perByte = 8 / bitDepth;
+                for (int x = 0; x < w; x += perByte) {
+                    int b = 0;
+                    for (int k = 0; k < perByte; k++) {
+                        int index = x + k < w ? indexOf(pixels[offset + x + k]) : 0;
+                        b |= index << (8 - bitDepth * (k + 1));
+                    }
+                    row[p++] = (byte) b;
+                }
+            }
+            return;
+        }
+        for (int x = 0; x < w; x++) {
+            int argb = pixels[offset + x];
+            switch (colorType) {
+                case COLOR_GRAY:
+                    row[p++] = (byte) argb;
+                    break;
+                case COLOR_GRAY_ALPHA:
+                    row[p++] = (byte) argb;
+                    row[p++] = (byte) (argb >>> 24);
+                    break;
+                case COLOR_RGB:
+                    row[p++] = (byte) (argb >> 16);
+                    row[p++] = (byte) (argb >> 8);
+                    row[p++] = (byte) argb;
+                    break;
+                default:
+                    row[p++] = (byte) (argb >> 16);
+                    row[p++] = (byte) (argb >> 8);
+                    row[p++] = (byte) argb;
+                    row[p++] = (byte) (argb >>> 24);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Try Sub, Up, Average and Paeth, keep the filter with the smallest sum of absolute values.
+     * @return filter type, the filtered row is filteredRows[type]
+     */
+    private int filterRow(int rowBytes, int bpp) {
+        byte[] cur = currentRow;
+        byte[] prev = previousRow;
+        long best = 0;
+        for (int i = 0; i < rowBytes; i++) {
+            best += Math.abs((int) cur[i]);
+        }
+        int bestFilter = 0;
+        for (int f = 1; f <= 4; f++) {
+            byte[] out = filteredRows[f];
+            long sum = 0;
+            for (int i = 0; i < rowBytes; i++) {
+                int a = i >= bpp ? cur[i - bpp] & 0xff : 0;
+                int b = prev[i] & 0xff;
+                int c = i >= bpp ? prev[i - bpp] & 0xff : 0;
+                int predictor;
+                if (f == 1) {
+                    predictor = a;
+                } else if (f == 2) {
+                    predictor = b;
+                } else if (f == 3) {
+                    predictor = (a + b) >> 1;
+                } else {
+                    int pa = Math.abs(b - c);
+                    int pb = Math.abs(a - c);
+                    int pc = Math.abs(a + b - 2 * c);
+                    predictor = pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+                }
+                out[i] = (byte) (cur[i] - predictor);
+                sum += Math.abs((int) out[i]);
+            }
+            if (sum < best) {
+                best = sum;
+                bestFilter = f;
+            }
+        }
+        return bestFilter;
+    }
+
+    private void deflate(byte[] data, int length, Buffer target) {
+        deflater.setInput(data, 0, length);
+        while (!deflater.needsInput()) {
+            int n = deflater.deflate(deflateBuffer);
+            target.write(deflateBuffer, 0, n);
+        }
+    }
+
+    private void ensureRowBuffers(int rowBytes) {
+        if (currentRow.length < rowBytes) {
+            previousRow = new byte[rowBytes];
+            currentRow = new byte[rowBytes];
+            for (int f = 0; f < filteredRows.length; f++) {
+                filteredRows[f] = new byte[rowBytes];
+            }
+        }
+    }
+
+    private void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] header = new byte[8];
+        putInt(header, 0, length);
+        for (int i = 0; i < 4; i++) {
+            header[4 + i] = (byte) type.charAt(i);
+        }
+        crc.reset();
+        crc.update(header, 4, 4);
+        crc.update(data, 0, length);
+        out.write(header);
+        out.write(data, 0, length);
+        byte[] sum = new byte[4];
+        putInt(sum, 0, (int) crc.getValue());
+        out.write(sum);
+    }
+
+    private static void putInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) (value >>> 24);
+        b[offset + 1] = (byte) (value >>> 16);
+        b[offset + 2] = (byte) (value >>> 8);
+        b[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Reusable IDAT buffer, its array is written without a copy
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+            super(8192);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+}
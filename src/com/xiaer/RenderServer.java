@@ -0,0 +1,311 @@
+package com.xiaer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * --serve, renders patches of the source directory on request instead of a batch run.
+ *   GET /<id>.html                 getHTML() of <id>.9.png, slice urls point to /images/
+ *   GET /images/<id>_<index>.png   one slice
+ *   A patch is parsed, sliced, encoded and rendered once per file version (lastModified + length),
+ *   the result is kept in a LRU cache bounded by the bytes of the pngs and the html, the decoded image is not kept.
+ *   ETags come from the file version, a matching If-None-Match answers 304 without decoding the image,
+ *   a slice index past the slice count is 404 first, counted from the cache or from the frame (NinePatch.readRegions).
+ *   Listens on the loopback address unless a host is given.
+ *   Requests are handled on a fixed pool, concurrent misses on one patch wait for a single render.
+ */
+public class RenderServer {
+
+    public static final int DEFAULT_PORT = 9090;
+
+    public static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private final File srcDirectory;
+    private final InetAddress host;
+    private final int port;
+    private final int threads;
+    private final LruCache cache;
+    private final ConcurrentHashMap<String, FutureTask<Rendered>> rendering = new ConcurrentHashMap<String, FutureTask<Rendered>>();
+    private HttpServer server;
+    private ExecutorService pool;
+
+    /**
+     *
+     * @param srcDirectory 9-Patch directory
+     * @param host listen address, null for the loopback address
+     * @param port listen port
+     * @param threads request threads, <= 0 uses the available processors
+     * @param cacheBytes max bytes of rendered patches kept in memory
+     */
+    public RenderServer(File srcDirectory, InetAddress host, int port, int threads, long cacheBytes) {
+        this.srcDirectory = srcDirectory;
+        this.host = host != null ? host : InetAddress.getLoopbackAddress();
+        this.port = port;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.cache = new LruCache(cacheBytes);
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        pool = Executors.newFixedThreadPool(threads);
+        server.setExecutor(pool);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // the request threads are gone, free their png readers and encoders
+            CodecPool.disposeAll();
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+
+        String method = exchange.getRequestMethod();
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            send(exchange, 405, "text/plain; charset=utf-8", null, "Method not allowed".getBytes("utf-8"));
+            return;
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        String id;
+        int index = -1;
+        if (path.startsWith("/images/") && path.endsWith(".png")) {
+            String name = path.substring("/images/".length(), path.length() - ".png".length());
+            int separator = name.lastIndexOf('_');
+            if (separator <= 0) {
+                notFound(exchange);
+                return;
+            }
+            id = name.substring(0, separator);
+            try {
+                index = Integer.parseInt(name.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                notFound(exchange);
+                return;
+            }
+        } else if (path.endsWith(".html") && path.lastIndexOf('/') == 0) {
+            id = path.substring(1, path.length() - ".html".length());
+        } else {
+            notFound(exchange);
+            return;
+        }
+
+        File file = new File(srcDirectory, id + ".9.png");
+        if (id.length() == 0 || id.startsWith(".") || id.indexOf('/') != -1 || id.indexOf('\\') != -1 || !file.isFile()) {
+            notFound(exchange);
+            return;
+        }
+
+        String version = BuildCache.GENERATOR_VERSION + "-" + Long.toHexString(file.lastModified()) + "-" + Long.toHexString(file.length());
+        String key = id + ".9.png@" + version;
+        String etag = "\"" + version + "-" + (index == -1 ? "html" : String.valueOf(index)) + "\"";
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        boolean notModified = ifNoneMatch != null && (ifNoneMatch.equals("*") || ifNoneMatch.indexOf(etag) != -1);
+        Rendered rendered = null;
+        int slices;
+        try {
+            if (notModified) {
+                slices = index == -1 ? 0 : sliceCount(file, key);
+            } else {
+                rendered = render(file, id, key);
+                slices = rendered.pngs.length;
+            }
+        } catch (NinePatchException e) {
+            send(exchange, 422, "text/plain; charset=utf-8", null, e.getMessage().getBytes("utf-8"));
+            return;
+        } catch (IOException e) {
+            // a truncated or corrupt png, or an interrupted render, the client still gets a status
+            String message = "Can not render " + file.getName() + ": " + e.getMessage();
+            Log.warn(message);
+            send(exchange, 500, "text/plain; charset=utf-8", null, message.getBytes("utf-8"));
+            return;
+        }
+
+        if (index >= slices) {
+            // a slice the patch does not have is not modified either, it is not found
+            notFound(exchange);
+        } else if (notModified) {
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.sendResponseHeaders(304, -1);
+        } else if (index == -1) {
+            send(exchange, 200, "text/html; charset=utf-8", etag, rendered.html.getBytes("utf-8"));
+        } else {
+            send(exchange, 200, "image/png", etag, rendered.pngs[index]);
+        }
+    }
+
+    /**
+     * Cached result of the file version, or a render shared by every request that misses at the same time.
+     */
+    private Rendered render(final File file, final String id, final String key) throws IOException {
+
+        Rendered rendered = cache.get(key);
+        if (rendered != null) {
+            return rendered;
+        }
+        FutureTask<Rendered> task = new FutureTask<Rendered>(new Callable<Rendered>() {
+            public Rendered call() throws IOException {
+                return Rendered.of(NinePatch.read(file), id);
+            }
+        });
+        FutureTask<Rendered> running = rendering.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            task.run();
+        }
+        try {
+            rendered = running.get();
+            cache.put(key, rendered);
+            return rendered;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause().toString());
+        } finally {
+            rendering.remove(key, running);
+        }
+    }
+
+    /**
+     * Slices of the file version, from the cached render or from the frame of the file, the image is not decoded.
+     */
+    private int sliceCount(File file, String key) throws IOException {
+        Rendered rendered = cache.get(key);
+        if (rendered != null) {
+            return rendered.pngs.length;
+        }
+        NinePatch np = NinePatch.readRegions(file);
+        np.release();
+        return np.getPatch().sliceCount();
+    }
+
+    private static void notFound(HttpExchange exchange) throws IOException {
+        send(exchange, 404, "text/plain; charset=utf-8", null, "Not found".getBytes("utf-8"));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String etag, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        if (etag != null) {
+            exchange.getResponseHeaders().set("ETag", etag);
+            // always revalidate, a saved patch shows up on the next reload
+            exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        }
+        boolean head = exchange.getRequestMethod().equals("HEAD");
+        exchange.sendResponseHeaders(status, head ? -1 : body.length);
+        if (!head) {
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.flush();
+        }
+    }
+
+    /**
+     * Encoded slices and html of one file version.
+     */
+    private static class Rendered {
+        final byte[][] pngs;
+        final String html;
+        final long bytes;
+
+        private Rendered(byte[][] pngs, String html) {
+            this.pngs = pngs;
+            this.html = html;
+            long size = html.length() * 2L;
+            for (byte[] png : pngs) {
+                size += png.length;
+            }
+            this.bytes = size;
+        }
+
+        static Rendered of(NinePatch np, String id) throws IOException {
+            final BufferedImage[] slices = new BufferedImage[np.getPatch().sliceCount()];
+            np.slice(new SliceHandler() {
+                public boolean handle(String id, int index, int sliceType, BufferedImage slice, String imagesDirectory) {
+                    slices[index] = slice;
+                    return true;
+                }
+            });
+            byte[][] pngs = new byte[slices.length][];
+            for (int i = 0; i < slices.length; i++) {
+                pngs[i] = UtilTools.encode(slices[i]);
+            }
+            np.release();
+            String html = np.getHTML(id).replace("\" + imageDirectory + \"", "/images/");
+            return new Rendered(pngs, html);
+        }
+    }
+
+    /**
+     * Least recently used first out, bounded by Rendered.bytes.
+     */
+    private static class LruCache {
+        private final long maxBytes;
+        private final LinkedHashMap<String, Rendered> entries = new LinkedHashMap<String, Rendered>(16, 0.75f, true);
+        private long bytes;
+
+        LruCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Rendered get(String key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(String key, Rendered rendered) {
+            Rendered previous = entries.put(key, rendered);
+            if (previous != null) {
+                bytes -= previous.bytes;
+            }
+            bytes += rendered.bytes;
+            Iterator<Map.Entry<String, Rendered>> eldest = entries.entrySet().iterator();
+            // keep at least the newest entry, even when it alone is larger than maxBytes
+            while (bytes > maxBytes && entries.size() > 1) {
+                bytes -= eldest.next().getValue().bytes;
+                eldest.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.xiaer;
+
+import java.awt.image.BufferedImage;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Writes every distinct pixel block once.
+ *   A slice is named after the SHA-1 of its size and ARGB pixels, html9patch_<hash>.png,
+ *   so the same corner of btn_normal / btn_hovered / btn_pressed is one file,
+ *   and the name does not depend on which worker got there first.
+ *   Fully transparent pixels are compared as 0, their color is invisible.
+ */
+public class SliceDeduplicator implements SliceHandler, SliceReference {
+
+    public static final String PREFIX = "html9patch_";
+
+    /**
+     * hex chars of the SHA-1 kept in the file name, 80 bits
+     */
+    private static final int NAME_LENGTH = 20;
+
+    /**
+     * file name -> written
+     */
+    private final ConcurrentHashMap<String, Boolean> written = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * <id>_<index> -> file name
+     */
+    private final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<String, String>();
+
+    public boolean handle(String id, int index, int sliceType, BufferedImage slice, String imagesDirectory) {
+        String name = PREFIX + hash(slice) + ".png";
+        names.put(id + "_" + index, name);
+        if (written.putIfAbsent(name, Boolean.TRUE) == null) {
+            UtilTools.write(slice, imagesDirectory + System.getProperty("file.separator") + name);
+        }
+        return true;
+    }
+
+    public String background(String id, int index) {
+        String name = names.get(id + "_" + index);
+        if (name == null) {
+            return FILES.background(id, index);
+        }
+        return "background-image:url(\" + imageDirectory + \"" + name + ");";
+    }
+
+    /**
+     * @return number of slices handled
+     */
+    public int sliceCount() {
+        return names.size();
+    }
+
+    /**
+     * @return number of distinct files written
+     */
+    public int fileCount() {
+        return written.size();
+    }
+
+    private static String hash(BufferedImage slice) {
+        int w = slice.getWidth();
+        int h = slice.getHeight();
+        int[] row = new int[w];
+        byte[] bytes = new byte[w * 4];
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(new byte[]{(byte) (w >> 24), (byte) (w >> 16), (byte) (w >> 8), (byte) w,
+                (byte) (h >> 24), (byte) (h >> 16), (byte) (h >> 8), (byte) h});
+        for (int y = 0; y < h; y++) {
+            UtilTools.getARGB(slice, 0, y, w, 1, row);
+            for (int x = 0; x < w; x++) {
+                int argb = (row[x] >>> 24) == 0 ? 0 : row[x];
+                bytes[x * 4] = (byte) (argb >> 24);
+                bytes[x * 4 + 1] = (byte) (argb >> 16);
+                bytes[x * 4 + 2] = (byte) (argb >> 8);
+                bytes[x * 4 + 3] = (byte) argb;
+            }
+            digest.update(bytes);
+        }
+        StringBuilder hex = new StringBuilder();
+        byte[] sum = digest.digest();
+        for (int i = 0; hex.length() < NAME_LENGTH; i++) {
+            hex.append(Character.forDigit((sum[i] >> 4) & 0xf, 16)).append(Character.forDigit(sum[i] & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
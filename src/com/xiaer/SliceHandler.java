@@ -0,0 +1,25 @@
+package com.xiaer;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Takes over slices from NinePatch.slice() instead of the default images/<id>_<index>.png,
+ * e.g. SpriteAtlas or SliceDeduplicator. Implementations are called from several workers at once.
+ */
+public interface SliceHandler {
+
+    /**
+     *
+     * @param id patch name, btn
+     * @param index slice index in the slice table
+     * @param sliceType PatchDescriptor.SLICE_TYPE_*
+     * @param slice pixels of the slice, shares the raster of the decoded image
+     * @param imagesDirectory slice images output directory
+     * @return false to let NinePatch write the slice as its own png
+     */
+    boolean handle(String id, int index, int sliceType, BufferedImage slice, String imagesDirectory);
+}
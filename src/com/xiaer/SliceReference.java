@@ -0,0 +1,29 @@
+package com.xiaer;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Where the generated <td> finds the pixels of one slice.
+ *   The result is placed in style='...' of a JS string, imageDirectory is the JS variable of html9patch.js.
+ */
+public interface SliceReference {
+
+    /**
+     * One png per slice, images/<id>_<index>.png
+     */
+    SliceReference FILES = new SliceReference() {
+        public String background(String id, int index) {
+            return "background-image:url(\" + imageDirectory + \"" + id + "_" + index + ".png);";
+        }
+    };
+
+    /**
+     *
+     * @param id patch name, btn
+     * @param index slice index in the slice table
+     * @return css background declarations
+     */
+    String background(String id, int index);
+}
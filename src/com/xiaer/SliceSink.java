@@ -0,0 +1,44 @@
+package com.xiaer;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Where encoded slice pngs go, see UtilTools.setSink.
+ *   Slices are encoded in memory by the worker, the sink gets the finished bytes and may be called from any worker.
+ */
+public interface SliceSink {
+
+    /**
+     * One file per slice, images/<id>_<index>.png
+     */
+    SliceSink DIRECTORY = new SliceSink() {
+        public void write(String path, byte[] png) throws IOException {
+            FileOutputStream out = new FileOutputStream(path);
+            try {
+                out.write(png);
+            } finally {
+                out.close();
+            }
+        }
+
+        public void close() {
+        }
+    };
+
+    /**
+     *
+     * @param path file the slice is written to without a sink, <imagesDirectory>/<id>_<index>.png
+     * @param png encoded slice
+     */
+    void write(String path, byte[] png) throws IOException;
+
+    /**
+     * Finish the output, called once after the last slice
+     */
+    void close() throws IOException;
+}
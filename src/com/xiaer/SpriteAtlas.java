@@ -0,0 +1,316 @@
+package com.xiaer;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Sprite sheets for the slices of a whole directory.
+ *   SLICE_TYPE_FIXED     shelf packed into html9patch_atlas_<n>.png, addressed with background-position px
+ *   SLICE_TYPE_REPEAT_X  stacked in strips of the same width, html9patch_atlas_x<width>_<n>.png,
+ *                        every slice spans the full strip so it still stretches horizontally
+ *   SLICE_TYPE_REPEAT_Y  side by side in strips of the same height, html9patch_atlas_y<height>_<n>.png
+ *   SLICE_TYPE_REPEAT    stretches both ways, stays a single png per slice
+ *   Identical slices, e.g. the corners shared by button states, are packed once.
+ */
+public class SpriteAtlas implements SliceHandler, SliceReference {
+
+    public static final String PREFIX = "html9patch_atlas";
+
+    /**
+     * max sheet / strip length in px
+     */
+    private static final int MAX_SIZE = 1024;
+
+    /**
+     * gap between packed fixed slices
+     */
+    private static final int PADDING = 1;
+
+    private final ArrayList<Sprite> sprites = new ArrayList<Sprite>();
+    private final HashMap<String, Sprite> lookup = new HashMap<String, Sprite>();
+    private final ArrayList<Sheet> sheets = new ArrayList<Sheet>();
+
+    /**
+     * @param sliceType PatchDescriptor.SLICE_TYPE_*
+     * @return true if the slice goes into a sheet, false if it is written as its own png
+     */
+    public static boolean accepts(int sliceType) {
+        return sliceType != PatchDescriptor.SLICE_TYPE_REPEAT;
+    }
+
+    public boolean handle(String id, int index, int sliceType, BufferedImage slice, String imagesDirectory) {
+        if (!accepts(sliceType)) {
+            return false;
+        }
+        add(id, index, sliceType, slice);
+        return true;
+    }
+
+    /**
+     * Pixels are copied, the source image can be released afterwards.
+     * Slices are packed in the order they are added.
+     */
+    public void add(String id, int index, int sliceType, BufferedImage slice) {
+        int w = slice.getWidth();
+        int h = slice.getHeight();
+        Sprite sprite = new Sprite(sliceType, w, h, UtilTools.getARGB(slice, 0, 0, w, h, null));
+        sprites.add(sprite);
+        lookup.put(id + "_" + index, sprite);
+    }
+
+    /**
+     * Append the slices of another atlas, used to merge per-file parts in file order.
+     */
+    public void addAll(SpriteAtlas other) {
+        sprites.addAll(other.sprites);
+        lookup.putAll(other.lookup);
+    }
+
+    public int size() {
+        return sprites.size();
+    }
+
+    /**
+     * Pack every added slice and write the sheets.
+     * @param imagesDirectory slice images output directory
+     * @return png bytes of all sheets
+     */
+    public long write(String imagesDirectory) {
+
+        sheets.clear();
+        ArrayList<Sprite> fixed = new ArrayList<Sprite>();
+        TreeMap<Integer, List<Sprite>> repeatX = new TreeMap<Integer, List<Sprite>>();
+        TreeMap<Integer, List<Sprite>> repeatY = new TreeMap<Integer, List<Sprite>>();
+        HashMap<Sprite, Sprite> unique = new HashMap<Sprite, Sprite>();
+        for (Sprite sprite : sprites) {
+            Sprite first = unique.get(sprite);
+            if (first != null) {
+                sprite.sameAs = first;
+                continue;
+            }
+            unique.put(sprite, sprite);
+            if (sprite.type == PatchDescriptor.SLICE_TYPE_FIXED) {
+                fixed.add(sprite);
+            } else if (sprite.type == PatchDescriptor.SLICE_TYPE_REPEAT_X) {
+                group(repeatX, sprite.width).add(sprite);
+            } else {
+                group(repeatY, sprite.height).add(sprite);
+            }
+        }
+
+        packShelves(fixed);
+        for (Map.Entry<Integer, List<Sprite>> strip : repeatX.entrySet()) {
+            packStrip(strip.getValue(), PREFIX + "_x" + strip.getKey(), true);
+        }
+        for (Map.Entry<Integer, List<Sprite>> strip : repeatY.entrySet()) {
+            packStrip(strip.getValue(), PREFIX + "_y" + strip.getKey(), false);
+        }
+
+        long written = 0;
+        for (Sheet sheet : sheets) {
+            BufferedImage bi = new BufferedImage(sheet.width, sheet.height, BufferedImage.TYPE_INT_ARGB);
+            for (Sprite sprite : sheet.sprites) {
+                bi.setRGB(sprite.x, sprite.y, sprite.width, sprite.height, sprite.argb, 0, sprite.width);
+            }
+            written += UtilTools.write(bi, imagesDirectory + System.getProperty("file.separator") + sheet.name + ".png");
+        }
+        return written;
+    }
+
+    /**
+     * Fixed slices, tallest first, left to right on shelves, a new sheet when MAX_SIZE is reached.
+     */
+    private void packShelves(List<Sprite> fixed) {
+
+        ArrayList<Sprite> sorted = new ArrayList<Sprite>(fixed);
+        Collections.sort(sorted, new Comparator<Sprite>() {
+            public int compare(Sprite a, Sprite b) {
+                return b.height - a.height;
+            }
+        });
+
+        Sheet sheet = null;
+        int x = 0;
+        int y = 0;
+        int shelfHeight = 0;
+        for (Sprite sprite : sorted) {
+            int limit = Math.max(MAX_SIZE, sprite.width);
+            if (sheet != null && x + sprite.width > limit) {
+                // next shelf
+                x = 0;
+                y += shelfHeight + PADDING;
+                shelfHeight = 0;
+            }
+            if (sheet == null || (y + sprite.height > MAX_SIZE && y > 0)) {
+                sheet = new Sheet(PREFIX + "_" + sheets.size());
+                sheets.add(sheet);
+                x = 0;
+                y = 0;
+                shelfHeight = 0;
+            }
+            sheet.place(sprite, x, y);
+            x += sprite.width + PADDING;
+            shelfHeight = Math.max(shelfHeight, sprite.height);
+        }
+    }
+
+    /**
+     * Repeat slices of one breadth, end to end without gaps across the stretch direction.
+     */
+    private void packStrip(List<Sprite> strip, String name, boolean vertical) {
+
+        Sheet sheet = null;
+        int offset = 0;
+        int n = 0;
+        for (Sprite sprite : strip) {
+            int length = vertical ? sprite.height : sprite.width;
+            if (sheet == null || (offset + length > MAX_SIZE && offset > 0)) {
+                sheet = new Sheet(name + "_" + n++);
+                sheets.add(sheet);
+                offset = 0;
+            }
+            sheet.place(sprite, vertical ? 0 : offset, vertical ? offset : 0);
+            offset += length;
+        }
+    }
+
+    private static List<Sprite> group(TreeMap<Integer, List<Sprite>> groups, int key) {
+        List<Sprite> list = groups.get(key);
+        if (list == null) {
+            list = new ArrayList<Sprite>();
+            groups.put(key, list);
+        }
+        return list;
+    }
+
+    /**
+     * Fixed slices are drawn 1:1 with a px offset, strips are scaled with the td like the single pngs,
+     * background-size makes one slice fill the td and background-position % picks it out of the strip.
+     */
+    public String background(String id, int index) {
+
+        Sprite sprite = lookup.get(id + "_" + index);
+        if (sprite != null && sprite.sameAs != null) {
+            sprite = sprite.sameAs;
+        }
+        if (sprite == null || sprite.sheet == null) {
+            return FILES.background(id, index);
+        }
+        String url = "background-image:url(\" + imageDirectory + \"" + sprite.sheet.name + ".png); ";
+        if (sprite.type == PatchDescriptor.SLICE_TYPE_FIXED) {
+            return url + "background-position:" + (-sprite.x) + "px " + (-sprite.y) + "px; background-size:auto;";
+        } else if (sprite.type == PatchDescriptor.SLICE_TYPE_REPEAT_X) {
+            return url + "background-size:100% " + percent(sprite.sheet.height, sprite.height) + "; " +
+                    "background-position:0 " + position(sprite.y, sprite.sheet.height, sprite.height) + ";";
+        } else {
+            return url + "background-size:" + percent(sprite.sheet.width, sprite.width) + " 100%; " +
+                    "background-position:" + position(sprite.x, sprite.sheet.width, sprite.width) + " 0;";
+        }
+    }
+
+    /**
+     * Sheet length relative to the slice, the td shows exactly one slice
+     */
+    private static String percent(int sheetLength, int length) {
+        return format(sheetLength * 100.0 / length);
+    }
+
+    /**
+     * background-position % aligns the point p of the image with the point p of the td,
+     * offset / (sheet - slice) puts the slice on the td.
+     */
+    private static String position(int offset, int sheetLength, int length) {
+        if (sheetLength == length) {
+            return "0";
+        }
+        return format(offset * 100.0 / (sheetLength - length));
+    }
+
+    private static String format(double value) {
+        long scaled = Math.round(value * 10000);
+        String s = (scaled / 10000) + "";
+        long fraction = scaled % 10000;
+        if (fraction != 0) {
+            String f = String.valueOf(10000 + fraction).substring(1);
+            while (f.endsWith("0")) {
+                f = f.substring(0, f.length() - 1);
+            }
+            s += "." + f;
+        }
+        return s + "%";
+    }
+
+    private static class Sprite {
+        final int type;
+        final int width;
+        final int height;
+        final int[] argb;
+        final int hash;
+        Sprite sameAs;
+        Sheet sheet;
+        int x;
+        int y;
+
+        Sprite(int type, int width, int height, int[] argb) {
+            this.type = type;
+            this.width = width;
+            this.height = height;
+            this.argb = argb;
+            // fully transparent pixels compare as 0
+            for (int i = 0; i < argb.length; i++) {
+                if ((argb[i] >>> 24) == 0) {
+                    argb[i] = 0;
+                }
+            }
+            this.hash = 31 * (31 * (31 * type + width) + height) + Arrays.hashCode(argb);
+        }
+
+        /**
+         * Same slice type, size and pixels
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Sprite)) {
+                return false;
+            }
+            Sprite s = (Sprite) o;
+            return hash == s.hash && type == s.type && width == s.width && height == s.height && Arrays.equals(argb, s.argb);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static class Sheet {
+        final String name;
+        final ArrayList<Sprite> sprites = new ArrayList<Sprite>();
+        int width;
+        int height;
+
+        Sheet(String name) {
+            this.name = name;
+        }
+
+        void place(Sprite sprite, int x, int y) {
+            sprite.sheet = this;
+            sprite.x = x;
+            sprite.y = y;
+            sprites.add(sprite);
+            width = Math.max(width, x + sprite.width);
+            height = Math.max(height, y + sprite.height);
+        }
+    }
+}
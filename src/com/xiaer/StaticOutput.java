@@ -0,0 +1,285 @@
+package com.xiaer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * --static, html9patch.css and html9patch/<id>.html instead of html9patch.js
+ *   The replaceWith / attr copy / state pass of html9patch.js is done once at build time:
+ *   inline slice styles become classes in html9patch.css, image urls are relative to the css file,
+ *   ids become classes so a snippet can be included any number of times, no script is needed.
+ *   States are listed in html9patch.states next to the 9-Patch files, one line per patch like the state attribute
+ *   html9patch.js reads from the page:
+ *     btn_normal=btn_hovered|btn_pressed
+ *   The snippet of such a patch carries the layers of its states too, the class of the outer div picks the visible one:
+ *     <div class='nine-patch btn_normal'>  ->  element.className = 'nine-patch btn_hovered'
+ *   Without the file every snippet carries its own layer only.
+ */
+public class StaticOutput {
+
+    public static final String CSS_FILE = "html9patch.css";
+
+    public static final String SNIPPET_DIRECTORY = "html9patch";
+
+    public static final String STATES_FILE = "html9patch.states";
+
+    private static final String IMAGE_DIRECTORY = "\" + imageDirectory + \"";
+
+    private static final String BASE_CSS =
+            ".nine-patch {\r\n" +
+            "    position: relative;\r\n" +
+            "    overflow: hidden;\r\n" +
+            "}\r\n" +
+            "\r\n" +
+            ".nine-patch .nine-patch-content {\r\n" +
+            "    position: absolute;\r\n" +
+            "    z-index: 100;\r\n" +
+            "    overflow: scroll;\r\n" +
+            "}\r\n" +
+            "\r\n" +
+            ".nine-patch .np-layer {\r\n" +
+            "    display: none;\r\n" +
+            "}\r\n" +
+            "\r\n" +
+            ".nine-patch table.np-layer {\r\n" +
+            "    position: relative;\r\n" +
+            "    width: 100%;\r\n" +
+            "    height: 100%;\r\n" +
+            "    padding: 0;\r\n" +
+            "    margin: 0;\r\n" +
+            "    border: 0;\r\n" +
+            "    border-collapse: collapse;\r\n" +
+            "}\r\n" +
+            "\r\n" +
+            ".nine-patch table.np-layer tr {\r\n" +
+            "    padding: 0;\r\n" +
+            "    margin: 0;\r\n" +
+            "    border: 0;\r\n" +
+            "}\r\n" +
+            "\r\n" +
+            ".nine-patch table.np-layer tr td {\r\n" +
+            "    padding: 0;\r\n" +
+            "    margin: 0;\r\n" +
+            "    border: 0;\r\n" +
+            "    background-position: left top;\r\n" +
+            "    background-repeat: repeat;\r\n" +
+            "    background-size: 100% 100%;\r\n" +
+            "    -moz-background-size: 100% 100%;\r\n" +
+            "    -webkit-background-size: 100% 100%;\r\n" +
+            "    -o-background-size: 100% 100%;\r\n" +
+            "}\r\n" +
+            "\r\n" +
+            ".nine-patch table.np-layer tr td img {\r\n" +
+            "    display: block;\r\n" +
+            "    padding: 0;\r\n" +
+            "    margin: 0;\r\n" +
+            "    border: 0;\r\n" +
+            "    width: 1px;\r\n" +
+            "    height: 1px;\r\n" +
+            "    background: none;\r\n" +
+            "    visibility: hidden;\r\n" +
+            "}\r\n" +
+            "\r\n" +
+            ".nine-patch table.np-layer tr td img.f {\r\n" +
+            "    float: left;\r\n" +
+            "}\r\n" +
+            "\r\n" +
+            ".nine-patch div.nine-patch-border {\r\n" +
+            "    position: relative;\r\n" +
+            "    width: 100%;\r\n" +
+            "    height: 100%;\r\n" +
+            "    overflow: hidden;\r\n" +
+            "    border-style: solid;\r\n" +
+            "    border-color: transparent;\r\n" +
+            "    -moz-box-sizing: border-box;\r\n" +
+            "    -webkit-box-sizing: border-box;\r\n" +
+            "    box-sizing: border-box;\r\n" +
+            "}\r\n";
+
+    /**
+     *
+     * @param html getHTML() / getBorderImageHTML() results
+     * @param id patch ids, same order
+     * @param targetDirectory 9-Patch directory, images/ and html9patch.states are next to html9patch.css
+     */
+    public static void write(ArrayList<String> html, ArrayList<String> id, String targetDirectory) {
+
+        // id -> [layer markup, layer css]
+        LinkedHashMap<String, String[]> layers = new LinkedHashMap<String, String[]>();
+        for (int i = 0; i < html.size(); i++) {
+            layers.put(id.get(i), layer(id.get(i), html.get(i)));
+        }
+
+        Properties groups = loadStates(new File(targetDirectory, STATES_FILE));
+
+        Writer o = null;
+        try {
+            o = open(new File(targetDirectory, CSS_FILE));
+            o.write(BASE_CSS);
+            for (String[] layer : layers.values()) {
+                o.write("\r\n");
+                o.write(layer[1]);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            close(o);
+        }
+
+        File snippets = new File(targetDirectory, SNIPPET_DIRECTORY);
+        if (!snippets.isDirectory()) {
+            snippets.mkdirs();
+        }
+        for (String patch : layers.keySet()) {
+            o = null;
+            try {
+                o = open(new File(snippets, patch + ".html"));
+                o.write("<div class='nine-patch " + patch + "'>\r\n" +
+                        "\t<div class='nine-patch-content'>\r\n" +
+                        "\t\tEntry Content\r\n" +
+                        "\t</div>\r\n" +
+                        "\r\n");
+                for (String state : states(patch, groups, layers)) {
+                    o.write(layers.get(state)[0]);
+                }
+                o.write("</div>\r\n");
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                close(o);
+            }
+        }
+    }
+
+    /**
+     * The patch itself first, then its states in the order html9patch.states lists them
+     */
+    private static List<String> states(String patch, Properties groups, LinkedHashMap<String, String[]> layers) {
+        ArrayList<String> states = new ArrayList<String>();
+        states.add(patch);
+        String listed = groups.getProperty(patch);
+        if (listed != null) {
+            for (String state : listed.split("\\|")) {
+                state = state.trim();
+                if (state.length() == 0 || states.contains(state)) {
+                    continue;
+                }
+                if (layers.containsKey(state)) {
+                    states.add(state);
+                } else {
+                    Log.warn(STATES_FILE + ": state " + state + " of " + patch + " has no patch");
+                }
+            }
+        }
+        return states;
+    }
+
+    /**
+     * @return patch id -> state ids separated by |, empty when there is no file
+     */
+    private static Properties loadStates(File file) {
+        Properties groups = new Properties();
+        if (file.isFile()) {
+            InputStream in = null;
+            try {
+                in = new FileInputStream(file);
+                groups.load(new InputStreamReader(in, "utf-8"));
+            } catch (IOException e) {
+                Log.warn("Can not read " + file + ": " + e.getMessage());
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Take the generated markup apart, every style='...' of the table / border-image div becomes a class rule.
+     * @return [layer markup, layer css]
+     */
+    private static String[] layer(String id, String html) {
+
+        StringBuilder css = new StringBuilder();
+        css.append("/* ").append(id).append(".9.png */\r\n");
+
+        String padding = attribute(html, "id='" + id + "_content' style='");
+        css.append(".nine-patch.").append(id).append(" > .nine-patch-content { ").append(padding).append(" }\r\n");
+
+        int tag = html.lastIndexOf('<', html.indexOf("id='" + id + "_table'"));
+        int end = html.lastIndexOf("</div>");
+        String layer = html.substring(tag, end).replace(IMAGE_DIRECTORY, "images/");
+        boolean table = layer.startsWith("<table");
+        css.append(".nine-patch.").append(id).append(" > .np-").append(id)
+                .append(table ? " { display: table; }\r\n" : " { display: block; }\r\n");
+
+        StringBuilder markup = new StringBuilder(layer.length());
+        String marker = " style='";
+        int start = 0;
+        int n = 0;
+        int found;
+        while ((found = layer.indexOf(marker, start)) != -1) {
+            int close = layer.indexOf('\'', found + marker.length());
+            String declarations = layer.substring(found + marker.length(), close);
+            markup.append(layer, start, found);
+            if (found < layer.indexOf('>')) {
+                // the border-image div, its style goes to the layer class
+                css.append(".np-").append(id).append(".nine-patch-border { ").append(declarations).append(" }\r\n");
+            } else {
+                String name = "np-" + id + "-" + n++;
+                markup.append(" class='").append(name).append("'");
+                css.append('.').append(name).append(" { ").append(declarations).append(" }\r\n");
+            }
+            start = close + 1;
+        }
+        markup.append(layer, start, layer.length());
+
+        String layerMarkup = markup.toString()
+                .replace("id='" + id + "_table' class='nine-patch-border'", "class='np-layer np-" + id + " nine-patch-border'")
+                .replace("id='" + id + "_table'", "class='np-layer np-" + id + "'");
+        return new String[]{layerMarkup, css.toString()};
+    }
+
+    private static String attribute(String html, String prefix) {
+        int start = html.indexOf(prefix);
+        if (start == -1) {
+            return "";
+        }
+        start += prefix.length();
+        return html.substring(start, html.indexOf('\'', start));
+    }
+
+    private static Writer open(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "utf-8"), 64 * 1024);
+    }
+
+    private static void close(Writer o) {
+        if (o != null) {
+            try {
+                o.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.xiaer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * Builds any number of source directories in one run.
+ *   Every root is walked with Files.walkFileTree, --recursive descends into sub folders, hidden folders are skipped.
+ *   Per folder output (default): every folder with .9.png files gets its own images/, html9patch.js and build cache,
+ *     the same files a run on that folder alone writes. A folder is queued on the pool as soon as the walk leaves it,
+ *     the workers decode while the walk goes on and files of all folders share them.
+ *   --merge <dir>: all patches go to one <dir>/images and one <dir>/html9patch.js in path order,
+ *     a patch id must be unique over all roots, a later path with the same id is skipped with a warning.
+ *   With --atlas the folders are built one after the other, a sheet needs all files of its folder.
+ */
+public class TreeBuilder {
+
+    private final BatchProcessor batch;
+    private final String cacheOptions;
+    private boolean recursive;
+    private File mergeDirectory;
+    private boolean staticOutput;
+    private boolean lazyStates;
+    private BuildMetrics metrics;
+
+    /**
+     * One output directory and its patches
+     */
+    private static final class Folder {
+        final File directory;
+        final File[] files;
+        final BuildCache cache;
+        BatchProcessor.Batch pending;
+
+        Folder(File directory, File[] files, BuildCache cache) {
+            this.directory = directory;
+            this.files = files;
+            this.cache = cache;
+        }
+    }
+
+    /**
+     *
+     * @param batch configured processor
+     * @param cacheOptions BuildCache options of the run, null builds without cache
+     */
+    public TreeBuilder(BatchProcessor batch, String cacheOptions) {
+        this.batch = batch;
+        this.cacheOptions = batch.isAtlas() ? null : cacheOptions;
+    }
+
+    /**
+     * @param recursive walk sub folders of every root
+     */
+    public void setRecursive(boolean recursive) {
+        this.recursive = recursive;
+    }
+
+    /**
+     * @param mergeDirectory write all patches to this directory, null writes next to every folder
+     */
+    public void setMergeDirectory(File mergeDirectory) {
+        this.mergeDirectory = mergeDirectory;
+    }
+
+    /**
+     * @param staticOutput write html9patch.css and snippets instead of html9patch.js, see StaticOutput
+     */
+    public void setStaticOutput(boolean staticOutput) {
+        this.staticOutput = staticOutput;
+    }
+
+    /**
+     * @param lazyStates html9patch.js inserts state tables on first use, see UtilTools.createJS
+     */
+    public void setLazyStates(boolean lazyStates) {
+        this.lazyStates = lazyStates;
+    }
+
+    /**
+     * @param metrics receives the js / static run stage, may be null
+     */
+    public void setMetrics(BuildMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     *
+     * @param roots canonical source directories
+     * @return number of patches written
+     * @throws IOException a root can not be walked
+     */
+    public int build(List<File> roots) throws IOException {
+        return mergeDirectory != null ? buildMerged(roots) : buildFolders(roots);
+    }
+
+    private int buildFolders(List<File> roots) throws IOException {
+
+        final ArrayList<Folder> folders = new ArrayList<Folder>();
+        walk(roots, new FolderHandler() {
+            public void handle(File directory, ArrayList<File> patches) {
+                BuildCache cache = cacheOptions != null ? new BuildCache(directory.getPath(), cacheOptions) : null;
+                Folder folder = new Folder(directory, patches.toArray(new File[patches.size()]), cache);
+                if (!batch.isAtlas()) {
+                    folder.pending = batch.submit(folder.files, images(directory), cache);
+                }
+                folders.add(folder);
+            }
+        });
+
+        int written = 0;
+        for (Folder folder : folders) {
+            ArrayList<String> htmls = new ArrayList<String>();
+            ArrayList<String> ids = new ArrayList<String>();
+            if (folder.pending != null) {
+                batch.finish(folder.pending, htmls, ids);
+            } else {
+                batch.process(folder.files, images(folder.directory), htmls, ids);
+            }
+            if (folder.cache != null) {
+                folder.cache.save();
+            }
+            if (htmls.isEmpty()) {
+                Log.warn(folder.directory + " has no valid 9patch images");
+                continue;
+            }
+            write(htmls, ids, folder.directory);
+            written += htmls.size();
+            if (folders.size() > 1) {
+                Log.info(folder.directory + ": " + htmls.size() + " patch(es)");
+            }
+        }
+        return written;
+    }
+
+    private int buildMerged(List<File> roots) throws IOException {
+
+        final ArrayList<File> found = new ArrayList<File>();
+        walk(roots, new FolderHandler() {
+            public void handle(File directory, ArrayList<File> files) {
+                found.addAll(files);
+            }
+        });
+        // the walk order of folders differs between file systems, sort by path
+        Collections.sort(found);
+
+        // id -> file, the first file of an id wins
+        LinkedHashMap<String, File> patches = new LinkedHashMap<String, File>();
+        for (File file : found) {
+            String id = file.getName().substring(0, file.getName().length() - 6);
+            File other = patches.get(id);
+            if (other != null) {
+                Log.warn(file + " skipped, " + other + " has the same id " + id);
+            } else {
+                patches.put(id, file);
+            }
+        }
+        if (patches.isEmpty()) {
+            return 0;
+        }
+
+        if (!mergeDirectory.isDirectory() && !mergeDirectory.mkdirs()) {
+            throw new IOException("Can not create " + mergeDirectory);
+        }
+        String directory = mergeDirectory.getCanonicalPath();
+        BuildCache cache = cacheOptions != null ? new BuildCache(directory, cacheOptions) : null;
+        ArrayList<String> htmls = new ArrayList<String>();
+        ArrayList<String> ids = new ArrayList<String>();
+        File[] files = patches.values().toArray(new File[patches.size()]);
+        if (batch.isAtlas()) {
+            batch.process(files, images(new File(directory)), htmls, ids);
+        } else {
+            batch.finish(batch.submit(files, images(new File(directory)), cache), htmls, ids);
+        }
+        if (cache != null) {
+            cache.save();
+        }
+        if (!htmls.isEmpty()) {
+            write(htmls, ids, new File(directory));
+        }
+        return htmls.size();
+    }
+
+    private interface FolderHandler {
+        /**
+         * @param patches .9.png files of the folder, sorted by name, never empty
+         */
+        void handle(File directory, ArrayList<File> patches);
+    }
+
+    /**
+     * Walk every root, a folder reached from two roots is handled once.
+     */
+    private void walk(List<File> roots, final FolderHandler handler) throws IOException {
+
+        final HashSet<Path> visited = new HashSet<Path>();
+        for (final File root : roots) {
+            final Path rootPath = root.toPath();
+            Files.walkFileTree(rootPath, EnumSet.noneOf(FileVisitOption.class), recursive ? Integer.MAX_VALUE : 1,
+                    new SimpleFileVisitor<Path>() {
+
+                // open folders -> their .9.png files
+                private final HashMap<Path, ArrayList<File>> found = new HashMap<Path, ArrayList<File>>();
+
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (!dir.equals(rootPath) && dir.getFileName().toString().startsWith(".")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    if (!visited.add(dir)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    found.put(dir, new ArrayList<File>());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    ArrayList<File> patches = found.get(file.getParent());
+                    if (patches != null && attrs.isRegularFile() && NinePatch.isNinePatch(file.getFileName().toString())) {
+                        patches.add(file.toFile());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    Log.warn("Can not read " + file + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    ArrayList<File> patches = found.remove(dir);
+                    if (e != null) {
+                        Log.warn("Can not list " + dir + ": " + e.getMessage());
+                    }
+                    if (patches != null && !patches.isEmpty()) {
+                        // keep html9patch.js in the same order on every file system
+                        Collections.sort(patches);
+                        handler.handle(dir.toFile(), patches);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+    }
+
+    private static String images(File directory) {
+        return directory.getPath() + System.getProperty("file.separator") + "images";
+    }
+
+    private void write(ArrayList<String> htmls, ArrayList<String> ids, File directory) {
+        long start = System.nanoTime();
+        if (staticOutput) {
+            // Create CSS File and HTML snippets
+            StaticOutput.write(htmls, ids, directory.getPath());
+        } else {
+            // Create JS File
+            UtilTools.createJS(htmls, ids, directory.getPath(), lazyStates);
+        }
+        if (metrics != null) {
+            metrics.addRunStage(staticOutput ? "static" : "js", System.nanoTime() - start);
+        }
+    }
+}
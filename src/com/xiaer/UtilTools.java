@@ -1,16 +1,16 @@
 package com.xiaer;
 
-import javax.imageio.ImageIO;
-import javax.imageio.ImageReadParam;
-import javax.imageio.ImageReader;
-import javax.imageio.stream.ImageInputStream;
-import java.awt.*;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Iterator;
 
 /**
  * Created by kimseongrim.
@@ -20,104 +20,267 @@ import java.util.Iterator;
 
 public class UtilTools {
 
-    public static void createJS(ArrayList<String> html, ArrayList<String> id, String targetDirectory) {
-
-        String vars = "";
-        String doms = "";
-        String stats = "";
+    private static volatile int pngLevel = PngEncoder.DEFAULT_LEVEL;
+    private static volatile boolean pngReduce = true;
+    private static volatile SliceSink sink = SliceSink.DIRECTORY;
 
-        for (int i = 0; i < html.size(); i++) {
+    /**
+     * html9patch.js per-patch templates, split on the patch id once
+     */
+    private static final String[] VARS_TEMPLATE = template(
+            "\t// {id}.9.png set vars START\r\n" +
+            "\tvar {id} = $('#{id}');\r\n" +
+            "\tvar {id}_html = \"");
+    private static final String[] VARS_END_TEMPLATE = template(
+            "\";\r\n" +
+            "\tvar {id}_state = {id}.attr('state');\r\n");
+    private static final String[] DOMS_TEMPLATE = template(
+            "\t// {id}.9.png set DOM START\r\n" +
+            "\tif({id}[0] != undefined) {\r\n" +
+            "\r\n" +
+            "\t\t// get attrs\r\n" +
+            "\t\tvar {id}_style = {id}.attr('style') == undefined ? '' : {id}.attr('style') + ' ';\r\n" +
+            "\t\tvar {id}_class = {id}.attr('class') == undefined ? '' : {id}.attr('class') + ' ';\r\n" +
+            "\t\tvar {id}_child = {id}.html();\r\n" +
+            "\r\n" +
+            "\t\t// replace template\r\n" +
+            "\t\treplaceDOM('#{id}', {id}_html);\r\n" +
+            "\t\t// re-selected id\r\n" +
+            "\t\t{id} = $('#{id}');\r\n" +
+            "\t\t// set class\r\n" +
+            "\t\t{id}.attr('class', {id}_class + {id}.attr('class'));\r\n" +
+            "\t\t// set style\r\n" +
+            "\t\t{id}.attr('style', {id}_style);\r\n" +
+            "\t\t$('#{id}_content').html({id}_child);\r\n" +
+            "\t}\r\n");
+    private static final String[] STATS_TEMPLATE = template(
+            "\t// {id}.9.png set stats START\r\n" +
+            "\tif({id}_state != undefined) {\r\n" +
+            "\t\tvar {id}_state_array = {id}_state.split(\"|\");\r\n" +
+            "\t\tfor (var i = 0; i < {id}_state_array.length; i++) {\r\n" +
+            "\t\t\tvar {id}_var = eval({id}_state_array[i] + '_html');\r\n" +
+            "\t\t\t$('#{id}_table').after($({id}_var).find('#' + {id}_state_array[i] + '_table'));\r\n" +
+            "\t\t\t$('#' + {id}_state_array[i] + '_table').hide();\r\n" +
+            "\t\t}\r\n" +
+            "\t}\r\n");
+    private static final String[] LAZY_STATS_TEMPLATE = template(
+            "\t// {id}.9.png set stats START\r\n" +
+            "\tif({id}_state != undefined) {\r\n" +
+            "\t\tstates['{id}'] = {id}_state.split(\"|\");\r\n" +
+            "\t\t{id}.one('mouseover mousedown touchstart focusin', function () {\r\n" +
+            "\t\t\tloadStates('{id}');\r\n" +
+            "\t\t});\r\n" +
+            "\t}\r\n");
 
-            vars += "\t// " + id.get(i) + ".9.png set vars START\r\n" +
-                    "\tvar " + id.get(i) + " = $('#" + id.get(i) + "');\r\n" +
-                    "\tvar " + id.get(i) + "_html = \"" + html.get(i).replace("\r\n", "") + "\";\r\n" +
-                    "\tvar " + id.get(i) + "_state = " + id.get(i) + ".attr('state');\r\n";
+    /**
+     * --lazy-states runtime, the state tables of a patch are parsed and inserted on its first
+     * mouseover / mousedown / touchstart / focusin, or by html9patchLoadStates(id).
+     * The <id>_html strings stay in the script, any patch may be placed on the page by itself.
+     */
+    private static final String LAZY_STATES =
+            "\r\n" +
+            "\tvar states = {};\r\n" +
+            "\tvar loadStates = function (id) {\r\n" +
+            "\t\tvar state_array = states[id];\r\n" +
+            "\t\tif (state_array == undefined) {\r\n" +
+            "\t\t\treturn;\r\n" +
+            "\t\t}\r\n" +
+            "\t\tdelete states[id];\r\n" +
+            "\t\tfor (var i = 0; i < state_array.length; i++) {\r\n" +
+            "\t\t\tif ($('#' + state_array[i] + '_table')[0] == undefined) {\r\n" +
+            "\t\t\t\t$('#' + id + '_table').after($(eval(state_array[i] + '_html')).find('#' + state_array[i] + '_table').hide());\r\n" +
+            "\t\t\t}\r\n" +
+            "\t\t}\r\n" +
+            "\t}\r\n" +
+            "\twindow.html9patchLoadStates = loadStates;\r\n";
 
-            doms += "\t// " + id.get(i) + ".9.png set DOM START\r\n" +
-                    "\tif(" + id.get(i) + "[0] != undefined) {\r\n" +
-                    "\r\n" +
-                    "\t\t// get attrs\r\n" +
-                    "\t\tvar " + id.get(i) + "_style = " + id.get(i) + ".attr('style') == undefined ? '' : " + id.get(i) + ".attr('style') + ' ';\r\n" +
-                    "\t\tvar " + id.get(i) + "_class = " + id.get(i) + ".attr('class') == undefined ? '' : " + id.get(i) + ".attr('class') + ' ';\r\n" +
-                    "\t\tvar " + id.get(i) + "_child = " + id.get(i) + ".html();\r\n" +
-                    "\r\n" +
-                    "\t\t// replace template\r\n" +
-                    "\t\treplaceDOM('#" + id.get(i) + "', " + id.get(i) + "_html);\r\n" +
-                    "\t\t// re-selected id\r\n" +
-                    "\t\t" + id.get(i) + " = $('#" + id.get(i) + "');\r\n" +
-                    "\t\t// set class\r\n" +
-                    "\t\t" + id.get(i) + ".attr('class', " + id.get(i) + "_class + " + id.get(i) + ".attr('class'));\r\n" +
-                    "\t\t// set style\r\n" +
-                    "\t\t" + id.get(i) + ".attr('style', " + id.get(i) + "_style);\r\n" +
-                    "\t\t$('#" + id.get(i) + "_content').html(" + id.get(i) + "_child);\r\n" +
-                    "\t}\r\n";
-
-            stats += "\t// " + id.get(i) + ".9.png set stats START\r\n" +
-                    "\tif(" + id.get(i) + "_state != undefined) {\r\n" +
-                    "\t\tvar " + id.get(i) + "_state_array = " + id.get(i) + "_state.split(\"|\");\r\n" +
-                    "\t\tfor (var i = 0; i < " + id.get(i) + "_state_array.length; i++) {\r\n" +
-                    "\t\t\tvar " + id.get(i) + "_var = eval(" + id.get(i) + "_state_array[i] + '_html');\r\n" +
-                    "\t\t\t$('#" + id.get(i) + "_table').after(" + id.get(i) + "_var.substring(" + id.get(i) + "_var.indexOf('<table'), " + id.get(i) + "_var.indexOf('</table>')+8));\r\n" +
-                    "\t\t\t$('#' + " + id.get(i) + "_state_array[i] + '_table').hide();\r\n" +
-                    "\t\t}\r\n" +
-                    "\t}\r\n";
-        }
+    public static void createJS(ArrayList<String> html, ArrayList<String> id, String targetDirectory) {
+        createJS(html, id, targetDirectory, false);
+    }
 
-        String jsStream = "$(document).ready(function(){\r\n" +
-                "\t/**\r\n" +
-                "\t * INFO\r\n" +
-                "\t * Images directory is not in the ./images/ , please modify the imageDirectory variable\r\n" +
-                "\t */\r\n" +
-                "\tvar imageDirectory = './images/';\r\n" +
-                "\r\n" +
-                "\tvar replaceDOM = function (id, html) {\r\n" +
-                "\t\t$(id).replaceWith(html);\r\n" +
-                "\t}\r\n" +
-                vars +
-                "\r\n" +
-                doms +
-                "\r\n" +
-                stats +
-                "\r\n" +
-                "});";
+    /**
+     * Write html9patch.js section by section straight to a buffered utf-8 writer,
+     * no part of the script is assembled in memory.
+     * @param lazyStates leave the state tables out of the DOM until the patch is first used,
+     *                   the images of the other states are only requested then.
+     *                   The script does not get smaller, every <id>_html string is still inlined.
+     */
+    public static void createJS(ArrayList<String> html, ArrayList<String> id, String targetDirectory, boolean lazyStates) {
 
+        Writer o = null;
         try {
             File mFile = new File(targetDirectory + System.getProperty("file.separator") + "html9patch.js");
             mFile.createNewFile();
 
-            FileOutputStream o = new FileOutputStream(mFile);
-            o.write(jsStream.getBytes("utf-8"));
-            o.close();
+            o = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mFile), "utf-8"), 64 * 1024);
+
+            o.write("$(document).ready(function(){\r\n" +
+                    "\t/**\r\n" +
+                    "\t * INFO\r\n" +
+                    "\t * Images directory is not in the ./images/ , please modify the imageDirectory variable\r\n" +
+                    "\t */\r\n" +
+                    "\tvar imageDirectory = './images/';\r\n" +
+                    "\r\n" +
+                    "\tvar replaceDOM = function (id, html) {\r\n" +
+                    "\t\t$(id).replaceWith(html);\r\n" +
+                    "\t}\r\n");
+            if (lazyStates) {
+                o.write(LAZY_STATES);
+            }
+
+            // vars
+            for (int i = 0; i < html.size(); i++) {
+                writeTemplate(o, VARS_TEMPLATE, id.get(i));
+                writeWithoutLineBreaks(o, html.get(i));
+                writeTemplate(o, VARS_END_TEMPLATE, id.get(i));
+            }
+            o.write("\r\n");
+
+            // doms
+            for (int i = 0; i < html.size(); i++) {
+                writeTemplate(o, DOMS_TEMPLATE, id.get(i));
+            }
+            o.write("\r\n");
+
+            // stats
+            for (int i = 0; i < html.size(); i++) {
+                writeTemplate(o, lazyStates ? LAZY_STATS_TEMPLATE : STATS_TEMPLATE, id.get(i));
+            }
+            o.write("\r\n" +
+                    "});");
 
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            if (o != null) {
+                try {
+                    o.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
         }
 
     }
 
-    public static void cut(String inputFile, String outFile, int x, int y, int width, int height) {
-
-        ImageInputStream imageStream = null;
-
-        try {
-            FileInputStream input = new FileInputStream(inputFile);
-            FileOutputStream output = new FileOutputStream(outFile);
+    private static String[] template(String template) {
+        return template.split("\\{id\\}", -1);
+    }
 
-            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName("png");
-            ImageReader reader = readers.next();
-            imageStream = ImageIO.createImageInputStream(input);
-            reader.setInput(imageStream, true);
-            ImageReadParam param = reader.getDefaultReadParam();
+    /**
+     * Write the template parts with the patch id between them
+     */
+    private static void writeTemplate(Writer o, String[] template, String id) throws IOException {
+        o.write(template[0]);
+        for (int i = 1; i < template.length; i++) {
+            o.write(id);
+            o.write(template[i]);
+        }
+    }
 
-            Rectangle rect = new Rectangle(x, y, width, height);
-            param.setSourceRegion(rect);
-            BufferedImage bi = reader.read(0, param);
+    /**
+     * Same as writing html.replace("\r\n", "") without building the replaced string
+     */
+    private static void writeWithoutLineBreaks(Writer o, String html) throws IOException {
+        int start = 0;
+        int end;
+        while ((end = html.indexOf("\r\n", start)) != -1) {
+            o.write(html, start, end - start);
+            start = end + 2;
+        }
+        o.write(html, start, html.length() - start);
+    }
 
-            ImageIO.write(bi, "png", output);
+    /**
+     * Encode bi and hand it to the sink
+     * @return png bytes written, 0 when it failed
+     */
+    public static long write(BufferedImage bi, String outFile) {
 
+        long start = System.nanoTime();
+        long written = 0;
+        try {
+            // encoded in memory, the sink gets the whole png in one call
+            byte[] png = encode(bi);
+            sink.write(outFile, png);
+            written = png.length;
+            BuildMetrics.written(written);
         } catch (Exception e) {
             e.printStackTrace();
         }
+        BuildMetrics.stage(BuildMetrics.ENCODE, start);
+        return written;
+    }
+
+    /**
+     * Pixels as default ARGB like BufferedImage.getRGB, except for gray images:
+     *   getRGB converts their linear gray to sRGB (238 becomes 247), here the gray samples are kept as they are,
+     *   the slices stay byte-identical to the source like ImageIO.write of the gray image wrote them.
+     * @param target w * h pixels, null allocates
+     * @return target
+     */
+    static int[] getARGB(BufferedImage image, int x, int y, int w, int h, int[] target) {
+        if (image.getColorModel().getColorSpace().getType() != ColorSpace.TYPE_GRAY) {
+            return image.getRGB(x, y, w, h, target, 0, w);
+        }
+        int[] argb = target != null ? target : new int[w * h];
+        Raster raster = image.getRaster();
+        int[] sampleSizes = raster.getSampleModel().getSampleSize();
+        int grayMax = (1 << sampleSizes[0]) - 1;
+        boolean alpha = raster.getNumBands() > 1;
+        int alphaMax = alpha ? (1 << sampleSizes[1]) - 1 : 0;
+        int[] samples = new int[w * raster.getNumBands()];
+        for (int row = 0; row < h; row++) {
+            raster.getPixels(x, y + row, w, 1, samples);
+            for (int col = 0; col < w; col++) {
+                int gray = alpha ? samples[col * 2] : samples[col];
+                int a = alpha ? (samples[col * 2 + 1] * 255 + alphaMax / 2) / alphaMax : 255;
+                gray = (gray * 255 + grayMax / 2) / grayMax;
+                argb[row * w + col] = a << 24 | gray << 16 | gray << 8 | gray;
+            }
+        }
+        return argb;
+    }
+
+    /**
+     * Encode like write(), in memory
+     * @return png bytes
+     */
+    public static byte[] encode(BufferedImage bi) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(4096);
+        encoder().write(bi, output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Slice png options, set before slicing starts
+     * @param level deflate level 0-9
+     * @param reduce palette / grayscale reduction
+     * @throws IllegalArgumentException level is not 0-9
+     */
+    public static void setPngOptions(int level, boolean reduce) {
+        PngEncoder.checkLevel(level);
+        pngLevel = level;
+        pngReduce = reduce;
+    }
+
+    /**
+     * Slice output, set before slicing starts
+     * @param sink SliceSink.DIRECTORY (default) or an archive
+     */
+    public static void setSink(SliceSink sink) {
+        UtilTools.sink = sink;
+    }
+
+    public static SliceSink getSink() {
+        return sink;
+    }
+
+    /**
+     * @return the png encoder of the calling thread, its deflater and buffers are reused for every slice
+     */
+    private static PngEncoder encoder() {
+        return CodecPool.encoder(pngLevel, pngReduce);
     }
 
 }
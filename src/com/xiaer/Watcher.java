@@ -0,0 +1,216 @@
+package com.xiaer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * --watch, keeps the JVM warm and rebuilds on every change of the source directory.
+ *   The [id, html] of every patch is kept in memory in file order,
+ *   a burst of events is collected until the directory is quiet for DEBOUNCE ms,
+ *   then only the touched .9.png files are processed and html9patch.js (or the --static output) is written from memory.
+ *   A patch that fails to parse, e.g. while it is still being saved, keeps its previous output.
+ *   With --atlas every file is processed again, the sheets depend on the whole directory.
+ */
+public class Watcher {
+
+    /**
+     * quiet time in ms before a burst of events is processed
+     */
+    private static final long DEBOUNCE = 150;
+
+    private final File srcDirectory;
+    private final String imagesDirectory;
+    private final BatchProcessor batch;
+    private final BuildCache cache;
+    private final boolean rebuildAll;
+    private boolean staticOutput;
+    private boolean lazyStates;
+
+    /**
+     * .9.png file -> [id, html], sorted like the files of a full run
+     */
+    private final TreeMap<File, String[]> outputs = new TreeMap<File, String[]>();
+
+    /**
+     *
+     * @param srcDirectory canonical 9-Patch directory
+     * @param imagesDirectory slice images output directory
+     * @param batch configured processor
+     * @param cache build manifest, may be null
+     * @param rebuildAll process every file on each change, for --atlas
+     */
+    public Watcher(File srcDirectory, String imagesDirectory, BatchProcessor batch, BuildCache cache, boolean rebuildAll) {
+        this.srcDirectory = srcDirectory;
+        this.imagesDirectory = imagesDirectory;
+        this.batch = batch;
+        this.cache = cache;
+        this.rebuildAll = rebuildAll;
+    }
+
+    /**
+     * @param staticOutput write html9patch.css and snippets instead of html9patch.js, see StaticOutput
+     */
+    public void setStaticOutput(boolean staticOutput) {
+        this.staticOutput = staticOutput;
+    }
+
+    /**
+     * @param lazyStates html9patch.js inserts state tables on first use, see UtilTools.createJS
+     */
+    public void setLazyStates(boolean lazyStates) {
+        this.lazyStates = lazyStates;
+    }
+
+    /**
+     * Build the whole directory once, then watch until the thread is interrupted.
+     * @throws IOException the directory can not be watched
+     */
+    public void run() throws IOException {
+
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        try {
+            srcDirectory.toPath().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+
+            rebuild(new TreeSet<File>(Arrays.asList(listPatches())));
+            Log.info("Watching " + srcDirectory + " (Ctrl+C to stop)");
+
+            while (!Thread.currentThread().isInterrupted()) {
+                TreeSet<File> touched = new TreeSet<File>();
+                // block for the first event, then collect until DEBOUNCE ms pass without one
+                WatchKey key = watchService.take();
+                while (key != null) {
+                    if (collect(key, touched)) {
+                        touched.addAll(outputs.keySet());
+                        touched.addAll(Arrays.asList(listPatches()));
+                    }
+                    key.reset();
+                    key = watchService.poll(DEBOUNCE, TimeUnit.MILLISECONDS);
+                }
+                if (!touched.isEmpty()) {
+                    rebuild(rebuildAll ? all(touched) : touched);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        } finally {
+            watchService.close();
+        }
+    }
+
+    /**
+     * @return true when events were lost and the whole directory must be checked
+     */
+    private boolean collect(WatchKey key, TreeSet<File> touched) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            String name = ((Path) event.context()).getFileName().toString();
+            if (NinePatch.isNinePatch(name)) {
+                touched.add(new File(srcDirectory, name));
+            }
+        }
+        return overflow;
+    }
+
+    private TreeSet<File> all(TreeSet<File> touched) {
+        TreeSet<File> files = new TreeSet<File>(touched);
+        files.addAll(outputs.keySet());
+        files.addAll(Arrays.asList(listPatches()));
+        return files;
+    }
+
+    /**
+     * Process the touched files, drop deleted ones, write html9patch.js from memory.
+     */
+    private void rebuild(TreeSet<File> touched) {
+
+        long start = System.nanoTime();
+        ArrayList<File> files = new ArrayList<File>();
+        for (File file : touched) {
+            if (file.isFile()) {
+                files.add(file);
+            } else if (outputs.remove(file) != null && cache != null) {
+                cache.remove(file.getName());
+            }
+        }
+
+        ArrayList<String> htmls = new ArrayList<String>();
+        ArrayList<String> ids = new ArrayList<String>();
+        batch.process(files.toArray(new File[files.size()]), imagesDirectory, htmls, ids);
+        // the workers are idle until the next save, do not keep a reader and deflater per worker meanwhile
+        CodecPool.disposeAll();
+        HashMap<String, String> results = new HashMap<String, String>();
+        for (int i = 0; i < ids.size(); i++) {
+            results.put(ids.get(i), htmls.get(i));
+        }
+        for (File file : files) {
+            String id = file.getName().substring(0, file.getName().length() - 6);
+            String html = results.get(id);
+            if (html != null) {
+                outputs.put(file, new String[]{id, html});
+            } else if (outputs.containsKey(file)) {
+                Log.warn(file.getName() + " keeps its previous output");
+            }
+        }
+        if (cache != null) {
+            cache.save();
+        }
+
+        if (outputs.isEmpty()) {
+            System.err.println("Directory No 9patch images.");
+            return;
+        }
+        htmls.clear();
+        ids.clear();
+        for (Map.Entry<File, String[]> output : outputs.entrySet()) {
+            ids.add(output.getValue()[0]);
+            htmls.add(output.getValue()[1]);
+        }
+        if (staticOutput) {
+            StaticOutput.write(htmls, ids, srcDirectory.getPath());
+        } else {
+            UtilTools.createJS(htmls, ids, srcDirectory.getPath(), lazyStates);
+        }
+        Log.info((staticOutput ? StaticOutput.CSS_FILE : "html9patch.js") + " updated, " + files.size() + " file(s) in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    private File[] listPatches() {
+        File[] files = srcDirectory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        ArrayList<File> patches = new ArrayList<File>();
+        for (File file : files) {
+            if (NinePatch.isNinePatch(file.getName())) {
+                patches.add(file);
+            }
+        }
+        return patches.toArray(new File[patches.size()]);
+    }
+}
@@ -0,0 +1,77 @@
+package com.xiaer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Created by kimseongrim.
+ * @author Kim
+ * @link https://github.com/kimseongrim/html9patch
+ *
+ * --pack <file.zip | file.jar>, every slice becomes an entry of one archive instead of a file.
+ *   Entries are named by their path relative to the base directory, images/btn_0.png or a/b/images/btn_0.png,
+ *   unpacking the archive next to html9patch.js gives the files a plain run writes.
+ *   png data is already deflated, entries are STORED, the central directory at the end is the index.
+ *   The archive goes through one FileChannel with a 1 MB buffer, a theme is written with a few large writes
+ *   instead of an open / write / close per slice. Workers encode in parallel, only the append is serialized.
+ */
+public class ZipSliceSink implements SliceSink {
+
+    private static final int BUFFER = 1024 * 1024;
+
+    private final String basePath;
+    private final ZipOutputStream zip;
+    private final HashSet<String> names = new HashSet<String>();
+    private final CRC32 crc = new CRC32();
+
+    /**
+     *
+     * @param archive zip file to create, replaced when it exists
+     * @param baseDirectory entry names are relative to this directory
+     */
+    public ZipSliceSink(File archive, File baseDirectory) throws IOException {
+        String base = baseDirectory.getCanonicalPath();
+        this.basePath = base.endsWith(File.separator) ? base : base + File.separator;
+        FileChannel channel = FileChannel.open(archive.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        this.zip = new ZipOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER));
+    }
+
+    public synchronized void write(String path, byte[] png) throws IOException {
+        String name = entryName(path);
+        if (!names.add(name)) {
+            // same slice written twice, e.g. a patch listed by two roots
+            Log.warn(name + " is already in the archive, skipped");
+            return;
+        }
+        crc.reset();
+        crc.update(png, 0, png.length);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(png.length);
+        entry.setCompressedSize(png.length);
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        zip.write(png);
+        zip.closeEntry();
+    }
+
+    public synchronized void close() throws IOException {
+        zip.close();
+    }
+
+    private String entryName(String path) {
+        // output directories are canonical already, no file system call per slice
+        String absolute = new File(path).getAbsolutePath();
+        String name = absolute.startsWith(basePath) ? absolute.substring(basePath.length()) : new File(path).getName();
+        return name.replace(File.separatorChar, '/');
+    }
+}